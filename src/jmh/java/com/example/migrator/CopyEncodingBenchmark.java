@@ -0,0 +1,94 @@
+package com.example.migrator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-batch work done on the migrator's side of COPY: building the IN list of an id batch,
+ * re-encoding a CSV batch and converting a binary batch between column types.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CopyEncodingBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    int batchSize;
+
+    /** Characters per id, so row width varies between short numeric keys and UUID-sized ones. */
+    @Param({"8", "36"})
+    int idWidth;
+
+    private List<String> ids;
+    private byte[] csv;
+    private byte[] binary;
+    private BinaryCopyCodec codec;
+    private CopyBuffer csvBuffer;
+    private final CopyBuffer reencoded = new CopyBuffer(0);
+    private final CopyCsv.Cursor cursor = new CopyCsv.Cursor();
+
+    @Setup
+    public void setup() throws IOException {
+        ids = new ArrayList<>(batchSize);
+        StringBuilder rows = new StringBuilder();
+        var bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(BinaryCopyCodec.SIGNATURE);
+        out.writeInt(0);
+        out.writeInt(0);
+        for (int i = 0; i < batchSize; i++) {
+            String id = String.format("%0" + idWidth + "d", i);
+            ids.add(id);
+            rows.append(id).append(",2015-06-01\n");
+            byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(2);
+            out.writeInt(idBytes.length);
+            out.write(idBytes);
+            out.writeInt(8);
+            out.writeLong(5630L * 86_400_000_000L);
+        }
+        out.writeShort(-1);
+        csv = rows.toString().getBytes(StandardCharsets.UTF_8);
+        binary = bytes.toByteArray();
+        csvBuffer = CopyBuffer.wrap(csv);
+        codec = new BinaryCopyCodec(new BinaryCopyCodec.FieldConverter[]{
+                null, BinaryCopyCodec.converter("timestamp", "date")});
+    }
+
+    @Benchmark
+    public String inList() {
+        return CopyMigrationService.inList(ids);
+    }
+
+    @Benchmark
+    public CopyBuffer reencodeCsv() {
+        reencoded.clear();
+        CopyCsv.reencode(csvBuffer, reencoded, cursor);
+        return reencoded;
+    }
+
+    @Benchmark
+    public byte[] convertBinary() throws IOException {
+        return codec.convert(binary);
+    }
+}
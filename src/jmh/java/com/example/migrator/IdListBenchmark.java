@@ -0,0 +1,104 @@
+package com.example.migrator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holding ids and finding the resume position: a plain string list against {@link IdSet}
+ * and the memory-mapped {@link IdsFile}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdListBenchmark {
+
+    @Param({"10000", "1000000"})
+    int ids;
+
+    private List<String> strings;
+    private IdSet idSet;
+    private IdsFile idsFile;
+    private Path file;
+    private String resumeId;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        strings = new ArrayList<>(ids);
+        for (int i = 0; i < ids; i++) {
+            strings.add(String.valueOf(1_000_000_000L + i * 3L));
+        }
+        resumeId = strings.get(ids * 9 / 10);
+        idSet = IdSet.copyOf(strings);
+        idSet.indexOf(resumeId);
+        file = Files.createTempFile("ids", ".txt");
+        Files.write(file, strings);
+        idsFile = IdsFile.open(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        idsFile = null;
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public List<String> buildStringList() {
+        return new ArrayList<>(strings);
+    }
+
+    @Benchmark
+    public IdSet buildIdSet() {
+        return IdSet.copyOf(strings);
+    }
+
+    @Benchmark
+    public int resumeStringList() {
+        return strings.indexOf(resumeId);
+    }
+
+    @Benchmark
+    public int resumeIdSet() {
+        return idSet.indexOf(resumeId);
+    }
+
+    @Benchmark
+    public int resumeIdsFile() {
+        return idsFile.indexOf(resumeId);
+    }
+
+    @Benchmark
+    public void iterateIdSet(Blackhole bh) {
+        for (String id : idSet) {
+            bh.consume(id);
+        }
+    }
+
+    @Benchmark
+    public void iterateIdsFile(Blackhole bh) {
+        for (String id : idsFile) {
+            bh.consume(id);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Finds the rows that made a CSV batch fail and loads the rest. The batch is split in halves,
+ * each half is loaded under a savepoint, and halves that fail are split again until the
+ * failing rows stand alone. Those go to {@code migration_dead_letter} with the error; all of it
+ * happens in the caller's transaction, so the dead letters commit together with the batch
+ * and its checkpoint. A batch with {@code k} bad rows out of {@code n} takes about
+ * {@code 2k log2(n)} loads instead of one.
+ */
+public class BatchIsolator {
+    private static final Logger log = LoggerFactory.getLogger(BatchIsolator.class);
+
+    /** Loads bytes {@code [from, to)} of a batch into the target, in the caller's transaction; returns the rows loaded. */
+    public interface Loader {
+        long load(byte[] data, int from, int to) throws Exception;
+    }
+
+    private final Connection dst;
+    private final String task;
+    private final MigrationMetrics metrics;
+    private final CopyCsv.Cursor cursor = new CopyCsv.Cursor();
+    private int[] offsets = new int[1024];
+
+    public BatchIsolator(Connection dst, String task, MigrationMetrics metrics) {
+        this.dst = dst;
+        this.task = task;
+        this.metrics = metrics;
+    }
+
+    /** Creates the dead letter table; pods and workers starting together serialize on an advisory lock. */
+    public void ensureTable() throws Exception {
+        dst.setAutoCommit(false);
+        try (Statement st = dst.createStatement()) {
+            st.execute("SELECT pg_advisory_xact_lock(hashtext('migration_dead_letter'))");
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS migration_dead_letter (task_name text not null, batch_last_id text, " +
+                    "row_data text, sql_state text, error text, failed_at timestamptz not null default now())");
+            dst.commit();
+        } catch (Exception e) {
+            dst.rollback();
+            throw e;
+        } finally {
+            dst.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Loads every record of {@code data} the target accepts and dead-letters the others, given
+     * that loading all of it failed with {@code failure}. Returns the rows loaded.
+     */
+    public long isolate(CopyBuffer data, SQLException failure, String lastId, Loader loader) throws Exception {
+        int records = 0;
+        cursor.reset(data);
+        while (cursor.nextRecord()) {
+            if (records + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[records++] = cursor.recordStart();
+        }
+        offsets[records] = data.size();
+        if (records == 0) {
+            throw failure;
+        }
+        long[] dead = {0};
+        long rows = records == 1
+                ? deadLetter(data.array(), 0, failure, lastId, dead)
+                : split(data.array(), 0, records, lastId, loader, dead);
+        log.warn("{}: batch up to {} loaded {} of {} rows, {} went to migration_dead_letter", task, lastId, rows, records, dead[0]);
+        return rows;
+    }
+
+    /** Loads records {@code [from, to)} as two halves, each bisected further if it fails. */
+    private long split(byte[] data, int from, int to, String lastId, Loader loader, long[] dead) throws Exception {
+        int mid = (from + to) >>> 1;
+        return attempt(data, from, mid, lastId, loader, dead) + attempt(data, mid, to, lastId, loader, dead);
+    }
+
+    private long attempt(byte[] data, int from, int to, String lastId, Loader loader, long[] dead) throws Exception {
+        Savepoint savepoint = dst.setSavepoint();
+        try {
+            long rows = loader.load(data, offsets[from], offsets[to]);
+            dst.releaseSavepoint(savepoint);
+            return rows;
+        } catch (Exception e) {
+            SQLException cause = sqlCause(e);
+            if (!isDataError(cause)) {
+                throw e;
+            }
+            // rolling back keeps the savepoint open; release it so bisecting a batch with many bad
+            // rows does not stack up more than the 64 subtransactions a backend caches
+            dst.rollback(savepoint);
+            dst.releaseSavepoint(savepoint);
+            return to - from == 1
+                    ? deadLetter(data, from, cause, lastId, dead)
+                    : split(data, from, to, lastId, loader, dead);
+        }
+    }
+
+    private long deadLetter(byte[] data, int record, SQLException error, String lastId, long[] dead) throws Exception {
+        int start = offsets[record];
+        int end = offsets[record + 1];
+        while (end > start && (data[end - 1] == '\n' || data[end - 1] == '\r')) {
+            end--;
+        }
+        try (PreparedStatement ps = dst.prepareStatement("INSERT INTO migration_dead_letter(task_name, batch_last_id, " +
+                "row_data, sql_state, error) VALUES (?, ?, ?, ?, ?)")) {
+            ps.setString(1, task);
+            ps.setString(2, lastId);
+            ps.setString(3, new String(data, start, end - start, StandardCharsets.UTF_8));
+            ps.setString(4, error.getSQLState());
+            ps.setString(5, error.getMessage());
+            ps.executeUpdate();
+        }
+        dead[0]++;
+        metrics.deadLetter();
+        return 0;
+    }
+
+    /** The SQL error behind {@code e}, or null if there is none. */
+    static SQLException sqlCause(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SQLException sql) {
+                return sql;
+            }
+        }
+        return null;
+    }
+
+    /** Errors caused by the rows themselves: bad values (class 22) and violated constraints (class 23). */
+    static boolean isDataError(SQLException e) {
+        String state = e == null ? null : e.getSQLState();
+        return state != null && (state.startsWith("22") || state.startsWith("23"));
+    }
+
+    /**
+     * Errors that may pass on their own: serialization failures and deadlocks (class 40), lack of
+     * resources (class 53), lock timeouts and statement timeouts.
+     */
+    static boolean isTransient(SQLException e) {
+        String state = e == null ? null : e.getSQLState();
+        return state != null && (state.startsWith("40") || state.startsWith("53") || "55P03".equals(state) || "57014".equals(state));
+    }
+}
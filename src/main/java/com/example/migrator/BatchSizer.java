@@ -0,0 +1,81 @@
+package com.example.migrator;
+
+import io.prometheus.client.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the size of the next batch from the time the previous ones took to load and commit.
+ * Batches that finish well inside the target latency grow by a fixed step, slow ones halve
+ * (additive increase, multiplicative decrease). A step up that lowers rows/sec is taken back
+ * and not tried again, so the size settles where throughput stops improving rather than at the
+ * latency limit or flipping between two sizes; only a slow batch, which halves the size, lets
+ * it probe upwards past that point once more. Without a target latency the size stays at
+ * {@code batchSize}.
+ */
+public class BatchSizer {
+    private static final Logger log = LoggerFactory.getLogger(BatchSizer.class);
+
+    static final Gauge batchSizeGauge = Gauge.build()
+            .name("migrator_batch_size")
+            .help("Rows requested for the next batch")
+            .labelNames("task", "partition")
+            .register();
+
+    private final int min;
+    private final int max;
+    private final long targetNanos;
+    private final int step;
+    private final Gauge.Child gauge;
+    private volatile int size;
+    private int previousSize;
+    private double previousRate;
+    /** Smallest size whose step up was taken back; growth stays below it. */
+    private int ceiling = Integer.MAX_VALUE;
+
+    public BatchSizer(int initial, int min, int max, long targetMillis, String task, String partition) {
+        this.min = Math.max(1, Math.min(min, max));
+        this.max = Math.max(this.min, max);
+        this.targetNanos = targetMillis * 1_000_000;
+        this.step = Math.max(1, (this.max - this.min) / 20);
+        this.size = Math.max(this.min, Math.min(this.max, initial));
+        this.gauge = batchSizeGauge.labels(task, partition);
+        gauge.set(size);
+    }
+
+    public static BatchSizer from(Config config, String task, String partition) {
+        return new BatchSizer(config.batchSize(), config.minBatchSize(), config.maxBatchSize(), config.targetBatchMillis(),
+                task, partition);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Feeds back one finished batch; safe to call from a different thread than {@link #size()}. */
+    public synchronized void record(long rows, long nanos) {
+        if (targetNanos <= 0 || min == max || rows <= 0) {
+            return;
+        }
+        double rate = rows * 1e9 / Math.max(1, nanos);
+        int next = size;
+        if (nanos > targetNanos) {
+            next = Math.max(min, size / 2);
+            ceiling = Integer.MAX_VALUE;
+        } else if (previousSize < size && rate < previousRate * 0.95) {
+            // the last increase made things slower
+            next = previousSize;
+            ceiling = Math.min(ceiling, size);
+        } else if (nanos < targetNanos * 0.8 && size + step < ceiling) {
+            next = Math.min(max, size + step);
+        }
+        if (next != size) {
+            log.debug("Batch of {} rows took {} ms ({} rows/sec), next batch size {}", rows, nanos / 1_000_000,
+                    String.format("%.0f", rate), next);
+        }
+        previousSize = size;
+        previousRate = rate;
+        size = next;
+        gauge.set(next);
+    }
+}
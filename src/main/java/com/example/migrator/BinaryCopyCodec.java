@@ -0,0 +1,194 @@
+package com.example.migrator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decodes and re-encodes PostgreSQL binary COPY ({@code PGCOPY}) data, converting the fields
+ * whose source and target column types differ. Fields of matching types are copied byte for byte;
+ * when every column matches no codec is needed and the stream can be passed through untouched.
+ */
+public class BinaryCopyCodec {
+    static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+
+    private static final Set<String> TEXT_TYPES = Set.of("text", "varchar", "bpchar");
+    private static final Set<String> INT_TYPES = Set.of("int2", "int4", "int8");
+    private static final long MICROS_PER_DAY = 86_400_000_000L;
+
+    /** Writes one field, given its binary value in {@code in} between position and limit. */
+    interface FieldConverter {
+        void convert(ByteBuffer in, DataOutputStream out) throws IOException;
+    }
+
+    private final FieldConverter[] converters;
+
+    BinaryCopyCodec(FieldConverter[] converters) {
+        this.converters = converters;
+    }
+
+    /**
+     * Compares the column types of the source query with the target columns and returns a codec
+     * for the fields that need converting, or null when the binary data can be passed through.
+     */
+    public static BinaryCopyCodec between(Connection src, String sourceQuery, Connection dst, String targetTable,
+                                          String targetColumns) throws Exception {
+        List<String> sourceTypes = columnTypes(src, sourceQuery);
+        List<String> targetTypes = columnTypes(dst, "SELECT " + targetColumns + " FROM " + targetTable);
+        if (sourceTypes.size() != targetTypes.size()) {
+            throw new IllegalArgumentException("Source has " + sourceTypes.size() + " columns but " + targetTable +
+                    " expects " + targetTypes.size());
+        }
+        FieldConverter[] converters = new FieldConverter[sourceTypes.size()];
+        boolean needed = false;
+        for (int i = 0; i < converters.length; i++) {
+            converters[i] = converter(sourceTypes.get(i), targetTypes.get(i));
+            needed |= converters[i] != null;
+        }
+        return needed ? new BinaryCopyCodec(converters) : null;
+    }
+
+    private static List<String> columnTypes(Connection c, String query) throws Exception {
+        try (Statement st = c.createStatement();
+             var rs = st.executeQuery("SELECT * FROM (" + query + ") q LIMIT 0")) {
+            ResultSetMetaData md = rs.getMetaData();
+            String[] types = new String[md.getColumnCount()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = md.getColumnTypeName(i + 1);
+            }
+            return Arrays.asList(types);
+        }
+    }
+
+    /** Returns null when both types share a binary representation. */
+    static FieldConverter converter(String from, String to) {
+        if (from.equals(to) || (TEXT_TYPES.contains(from) && TEXT_TYPES.contains(to))) {
+            return null;
+        }
+        if (INT_TYPES.contains(from) && INT_TYPES.contains(to)) {
+            return (in, out) -> writeInt(to, readInt(in), out);
+        }
+        if (INT_TYPES.contains(from) && to.equals("float8")) {
+            return (in, out) -> {
+                out.writeInt(8);
+                out.writeDouble(readInt(in));
+            };
+        }
+        if (from.equals("float4") && to.equals("float8")) {
+            return (in, out) -> {
+                out.writeInt(8);
+                out.writeDouble(in.getFloat());
+            };
+        }
+        if (from.equals("date") && to.equals("timestamp")) {
+            return (in, out) -> {
+                int days = in.getInt();
+                out.writeInt(8);
+                out.writeLong(days == Integer.MAX_VALUE ? Long.MAX_VALUE
+                        : days == Integer.MIN_VALUE ? Long.MIN_VALUE : days * MICROS_PER_DAY);
+            };
+        }
+        if (from.equals("timestamp") && to.equals("date")) {
+            return (in, out) -> {
+                long micros = in.getLong();
+                out.writeInt(4);
+                out.writeInt(micros == Long.MAX_VALUE ? Integer.MAX_VALUE
+                        : micros == Long.MIN_VALUE ? Integer.MIN_VALUE : (int) Math.floorDiv(micros, MICROS_PER_DAY));
+            };
+        }
+        throw new IllegalArgumentException("Binary copy cannot convert " + from + " to " + to + "; use copyMode=csv");
+    }
+
+    private static long readInt(ByteBuffer in) {
+        return switch (in.remaining()) {
+            case 2 -> in.getShort();
+            case 4 -> in.getInt();
+            default -> in.getLong();
+        };
+    }
+
+    private static void writeInt(String type, long value, DataOutputStream out) throws IOException {
+        switch (type) {
+            case "int2" -> {
+                if (value != (short) value) {
+                    throw new IOException("Value " + value + " out of range for int2");
+                }
+                out.writeInt(2);
+                out.writeShort((int) value);
+            }
+            case "int4" -> {
+                if (value != (int) value) {
+                    throw new IOException("Value " + value + " out of range for int4");
+                }
+                out.writeInt(4);
+                out.writeInt((int) value);
+            }
+            default -> {
+                out.writeInt(8);
+                out.writeLong(value);
+            }
+        }
+    }
+
+    /** Converts a complete binary COPY stream, header to trailer. */
+    public byte[] convert(byte[] data) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        var bytes = new ByteArrayOutputStream(data.length + data.length / 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        readHeader(in);
+        out.write(SIGNATURE);
+        out.writeInt(0);
+        out.writeInt(0);
+        while (true) {
+            short fields = in.getShort();
+            out.writeShort(fields);
+            if (fields == -1) {
+                break;
+            }
+            if (fields != converters.length) {
+                throw new IOException("Tuple has " + fields + " fields, expected " + converters.length);
+            }
+            for (FieldConverter converter : converters) {
+                int length = in.getInt();
+                if (length == -1) {
+                    out.writeInt(-1);
+                    continue;
+                }
+                if (converter == null) {
+                    out.writeInt(length);
+                    out.write(data, in.position(), length);
+                    in.position(in.position() + length);
+                    continue;
+                }
+                int end = in.position() + length;
+                ByteBuffer field = in.duplicate();
+                field.limit(end);
+                converter.convert(field, out);
+                in.position(end);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static void readHeader(ByteBuffer in) throws IOException {
+        for (byte b : SIGNATURE) {
+            if (in.get() != b) {
+                throw new IOException("Not a binary COPY stream");
+            }
+        }
+        int flags = in.getInt();
+        if ((flags & (1 << 16)) != 0) {
+            throw new IOException("Binary COPY with OIDs is not supported");
+        }
+        int extension = in.getInt();
+        in.position(in.position() + extension);
+    }
+}
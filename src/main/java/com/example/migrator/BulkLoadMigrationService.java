@@ -0,0 +1,202 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Wraps a migration in a bulk-load phase: secondary indexes and foreign keys of the target table,
+ * or with {@code impl=tables} of every job's target table, are dropped before the load and rebuilt
+ * afterwards, several indexes at a time. The dropped DDL is
+ * recorded in {@code migration_deferred_ddl} in the same transaction that drops it, so a run that
+ * dies half way still knows what to restore; the next successful run rebuilds it.
+ */
+public class BulkLoadMigrationService implements MigrationService {
+    private static final Logger log = LoggerFactory.getLogger(BulkLoadMigrationService.class);
+
+    private record DeferredDdl(String table, String name, String kind, String ddl) {
+    }
+
+    private final Config config;
+    private final Function<Config, MigrationService> delegate;
+
+    public BulkLoadMigrationService(Config config, Function<Config, MigrationService> delegate) {
+        this.config = config;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void run() throws Exception {
+        deferDdl();
+        // loaded batches only need to be durable once the whole load has finished
+        Config loadConfig = config.withTargetUrl(withOption(config.targetUrl(), "-c synchronous_commit=off"));
+        delegate.apply(loadConfig).run();
+        restoreDdl();
+    }
+
+    /** The target tables the load writes to. */
+    private List<String> tables() {
+        if ("tables".equals(config.impl())) {
+            return config.tables().stream().map(TableJob::targetTable).distinct().toList();
+        }
+        return List.of(config.targetTable());
+    }
+
+    static String withOption(String url, String option) {
+        return url + (url.contains("?") ? "&" : "?") + "options=" + option.replace(" ", "%20").replace("=", "%3D");
+    }
+
+    private void deferDdl() throws Exception {
+        try (Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword());
+             Statement st = dst.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS migration_deferred_ddl (task_name text, table_name text, object_name text, " +
+                    "kind text, ddl text, primary key (task_name, table_name, object_name))");
+            List<DeferredDdl> pending = loadDeferred(dst);
+            if (!pending.isEmpty()) {
+                log.info("{} indexes and constraints of {} are still deferred by an earlier run", pending.size(), tables());
+                return;
+            }
+            List<DeferredDdl> deferred = new ArrayList<>();
+            try (PreparedStatement indexes = dst.prepareStatement("SELECT i.indexrelid::regclass::text, pg_get_indexdef(i.indexrelid) " +
+                    "FROM pg_index i WHERE i.indrelid = ?::regclass AND NOT i.indisprimary " +
+                    "AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conindid = i.indexrelid)");
+                 PreparedStatement foreignKeys = dst.prepareStatement("SELECT conname, pg_get_constraintdef(oid) FROM pg_constraint " +
+                         "WHERE conrelid = ?::regclass AND contype = 'f'")) {
+                for (String table : tables()) {
+                    indexes.setString(1, table);
+                    try (ResultSet rs = indexes.executeQuery()) {
+                        while (rs.next()) {
+                            deferred.add(new DeferredDdl(table, rs.getString(1), "index", rs.getString(2)));
+                        }
+                    }
+                    foreignKeys.setString(1, table);
+                    try (ResultSet rs = foreignKeys.executeQuery()) {
+                        while (rs.next()) {
+                            deferred.add(new DeferredDdl(table, rs.getString(1), "foreign key",
+                                    "ALTER TABLE " + table + " ADD CONSTRAINT " + quoteIdent(rs.getString(1)) + " " + rs.getString(2)));
+                        }
+                    }
+                }
+            }
+            if (deferred.isEmpty()) {
+                return;
+            }
+            dst.setAutoCommit(false);
+            try (PreparedStatement save = dst.prepareStatement("INSERT INTO migration_deferred_ddl(task_name, table_name, object_name, " +
+                    "kind, ddl) VALUES (?, ?, ?, ?, ?)")) {
+                for (DeferredDdl d : deferred) {
+                    save.setString(1, config.taskName());
+                    save.setString(2, d.table());
+                    save.setString(3, d.name());
+                    save.setString(4, d.kind());
+                    save.setString(5, d.ddl());
+                    save.addBatch();
+                    st.addBatch(d.kind().equals("index") ? "DROP INDEX " + d.name()
+                            : "ALTER TABLE " + d.table() + " DROP CONSTRAINT " + quoteIdent(d.name()));
+                }
+                save.executeBatch();
+                st.executeBatch();
+                dst.commit();
+            } catch (Exception e) {
+                dst.rollback();
+                throw e;
+            }
+            log.info("Dropped {} indexes and constraints of {} for the load: {}", deferred.size(), tables(),
+                    deferred.stream().map(DeferredDdl::name).toList());
+        }
+    }
+
+    private void restoreDdl() throws Exception {
+        List<DeferredDdl> deferred;
+        try (Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+            deferred = loadDeferred(dst);
+        }
+        if (deferred.isEmpty()) {
+            return;
+        }
+        log.info("Rebuilding {} deferred indexes and constraints on {} connections", deferred.size(), config.indexBuildParallelism());
+        List<DeferredDdl> indexes = deferred.stream().filter(d -> d.kind().equals("index")).toList();
+        ExecutorService builders = Executors.newFixedThreadPool(config.indexBuildParallelism());
+        try {
+            List<Future<?>> builds = new ArrayList<>();
+            for (DeferredDdl index : indexes) {
+                builds.add(builders.submit(() -> {
+                    restore(index);
+                    return null;
+                }));
+            }
+            for (Future<?> build : builds) {
+                try {
+                    build.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
+            }
+        } finally {
+            builders.shutdownNow();
+        }
+        // foreign keys are validated with the indexes already in place
+        for (DeferredDdl d : deferred) {
+            if (!d.kind().equals("index")) {
+                restore(d);
+            }
+        }
+    }
+
+    private void restore(DeferredDdl d) throws Exception {
+        long start = System.nanoTime();
+        try (Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword());
+             Statement st = dst.createStatement()) {
+            st.execute("SET maintenance_work_mem = '" + config.maintenanceWorkMem().replace("'", "''") + "'");
+            boolean exists;
+            try (ResultSet rs = st.executeQuery(d.kind().equals("index")
+                    ? "SELECT to_regclass(" + CopyMigrationService.quote(d.name()) + ") IS NOT NULL"
+                    : "SELECT EXISTS (SELECT 1 FROM pg_constraint WHERE conrelid = " + CopyMigrationService.quote(d.table()) +
+                    "::regclass AND conname = " + CopyMigrationService.quote(d.name()) + ")")) {
+                rs.next();
+                exists = rs.getBoolean(1);
+            }
+            if (!exists) {
+                st.execute(d.ddl());
+            }
+            try (PreparedStatement done = dst.prepareStatement("DELETE FROM migration_deferred_ddl WHERE task_name = ? " +
+                    "AND table_name = ? AND object_name = ?")) {
+                done.setString(1, config.taskName());
+                done.setString(2, d.table());
+                done.setString(3, d.name());
+                done.executeUpdate();
+            }
+        }
+        log.info("Restored {} {} of {} in {} ms", d.kind(), d.name(), d.table(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private List<DeferredDdl> loadDeferred(Connection dst) throws Exception {
+        List<DeferredDdl> deferred = new ArrayList<>();
+        try (PreparedStatement ps = dst.prepareStatement("SELECT table_name, object_name, kind, ddl FROM migration_deferred_ddl " +
+                "WHERE task_name = ? ORDER BY table_name, object_name")) {
+            ps.setString(1, config.taskName());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    deferred.add(new DeferredDdl(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4)));
+                }
+            }
+        }
+        return deferred;
+    }
+
+    private static String quoteIdent(String name) {
+        return "\"" + name.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.migrator;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The first half of a two-phase migration: walks the source key space in chunks of
+ * {@code chunkRows} rows and streams each chunk's COPY output through gzip into a file in
+ * {@code chunkDir}, computing its CRC-32C on the way. A chunk is written under a temporary
+ * name, synced and renamed before it is added to the {@link ChunkManifest}, so a rerun
+ * continues after the last listed chunk and never trusts a half-written file. The target is
+ * not needed; {@link ChunkLoadService} loads the files later, into as many targets as wanted.
+ */
+public class ChunkExtractService implements MigrationService {
+    private static final Logger log = LoggerFactory.getLogger(ChunkExtractService.class);
+
+    private static final int GZIP_BUFFER = 64 * 1024;
+
+    private final Config config;
+
+    public ChunkExtractService(Config config) {
+        this.config = config;
+    }
+
+    @Override
+    public void run() throws Exception {
+        Path dir = Path.of(config.chunkDir());
+        ChunkManifest manifest = ChunkManifest.open(dir, header(config));
+        if (manifest.isComplete()) {
+            log.info("Extract in {} is already complete: {} chunks, {} rows", dir, manifest.chunks().size(), manifest.rows());
+            return;
+        }
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(dir, "*.tmp")) {
+            for (Path leftover : leftovers) {
+                Files.delete(leftover);
+            }
+        }
+        String lastId = manifest.lastId();
+        log.info("Extracting task {} into {} after id {}, {} chunks already done", config.taskName(), dir, lastId,
+                manifest.chunks().size());
+        long start = System.nanoTime();
+        MigrationMetrics metrics = MigrationMetrics.forTask(config.taskName());
+        try (Connection src = DriverManager.getConnection(config.sourceUrl(), config.sourceUser(), config.sourcePassword());
+             PreparedStatement firstBound = src.prepareStatement(CopyMigrationService.boundSql(config, false, false));
+             PreparedStatement nextBound = src.prepareStatement(CopyMigrationService.boundSql(config, true, false))) {
+            CopyManager copy = src.unwrap(PGConnection.class).getCopyAPI();
+            String upper;
+            while ((upper = CopyMigrationService.nextBound(lastId == null ? firstBound : nextBound, lastId, null,
+                    config.chunkRows())) != null) {
+                long chunkStart = System.nanoTime();
+                ChunkManifest.Chunk chunk = write(copy, dir, manifest.chunks().size() + 1, lastId, upper);
+                metrics.time(MigrationMetrics.EXTRACT, chunkStart);
+                manifest.append(chunk);
+                metrics.rows(chunk.rows());
+                double seconds = (System.nanoTime() - start) / 1e9;
+                log.info("{}: wrote {} with {} rows up to {} ({} bytes, {} chunks, {} recs/sec)", config.taskName(),
+                        chunk.fileName(), chunk.rows(), upper, chunk.bytes(), manifest.chunks().size(),
+                        String.format("%.2f", manifest.rows() / seconds));
+                lastId = upper;
+            }
+        }
+        manifest.complete();
+        log.info("Extract finished. {} chunks, {} rows in {}", manifest.chunks().size(), manifest.rows(), dir);
+    }
+
+    /** What the chunk files hold; a rerun into the same directory must match it. */
+    static Map<String, String> header(Config config) {
+        Map<String, String> header = new LinkedHashMap<>();
+        header.put("format", ChunkManifest.FORMAT);
+        header.put("table", config.sourceTable());
+        header.put("columns", config.sourceColumns());
+        header.put("filter", config.sourceFilter());
+        header.put("key", config.keyColumn());
+        header.put("chunkRows", String.valueOf(config.chunkRows()));
+        return header;
+    }
+
+    private ChunkManifest.Chunk write(CopyManager copy, Path dir, int number, String from, String to) throws Exception {
+        String key = config.keyColumn();
+        String select = "SELECT " + config.sourceColumns() + " FROM " + config.sourceTable() + " WHERE " + config.sourceFilter() +
+                (from != null ? " AND " + key + " > " + CopyMigrationService.quote(from) : "") +
+                " AND " + key + " <= " + CopyMigrationService.quote(to);
+        ChunkManifest.Chunk chunk = new ChunkManifest.Chunk(number, from, to, 0, 0, 0);
+        Path file = dir.resolve(chunk.fileName());
+        Path tmp = dir.resolve(chunk.fileName() + ".tmp");
+        CRC32C crc = new CRC32C();
+        long rows;
+        long bytes;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            // deflate output goes to the channel in GZIP_BUFFER writes, checksummed as it passes
+            try (GZIPOutputStream gzip = new GZIPOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), GZIP_BUFFER)) {
+                rows = copy.copyOut("COPY (" + select + ") TO STDOUT WITH (FORMAT CSV)", gzip);
+                gzip.finish();
+                channel.force(true);
+                bytes = channel.size();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        return new ChunkManifest.Chunk(number, from, to, rows, bytes, crc.getValue());
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.migrator;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The second half of a two-phase migration: loads the chunk files written by
+ * {@link ChunkExtractService} into the target, {@code parallelism} chunks at a time. Files are
+ * memory-mapped where they fit in one mapping and read as a stream otherwise; either way the
+ * CRC-32C and the row count from the manifest are checked before the chunk commits. Each
+ * chunk commits together with its own progress entry, {@code <taskName>@<file>}, so a rerun
+ * skips loaded chunks and loading the same extract into another target starts from scratch.
+ */
+public class ChunkLoadService implements MigrationService {
+    private static final Logger log = LoggerFactory.getLogger(ChunkLoadService.class);
+
+    private static final int READ_BUFFER = 64 * 1024;
+
+    private final Config config;
+
+    public ChunkLoadService(Config config) {
+        this.config = config;
+    }
+
+    @Override
+    public void run() throws Exception {
+        Path dir = Path.of(config.chunkDir());
+        ChunkManifest manifest = ChunkManifest.read(dir);
+        if (!manifest.isComplete()) {
+            throw new IllegalStateException("The extract in " + dir + " is not finished; rerun impl=extract first");
+        }
+        if (!config.transforms().isBlank() || !config.targetColumns().isBlank()) {
+            throw new IllegalArgumentException("Chunk files are loaded as extracted; use impl=copy for transforms");
+        }
+        List<ChunkManifest.Chunk> chunks = manifest.chunks();
+        log.info("Loading {} chunks with {} rows from {} into {}", chunks.size(), manifest.rows(), dir,
+                config.targetTable());
+        try (Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+            new ProgressStore(dst).ensureTable();
+        }
+
+        Queue<ChunkManifest.Chunk> queue = new ConcurrentLinkedQueue<>(chunks);
+        // the column names of the extract's select list, which may hold expressions
+        String columns = String.join(", ", RowTransforms.columnNames(manifest.header().get("columns")));
+        int parallelism = Math.max(1, Math.min(config.parallelism(), chunks.size()));
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        AtomicBoolean failed = new AtomicBoolean();
+        long start = System.nanoTime();
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < parallelism; i++) {
+                int worker = i;
+                results.add(workers.submit(() -> loadChunks(dir, columns, queue, failed, worker, start)));
+            }
+            long loaded = 0;
+            Exception failure = null;
+            for (Future<Long> result : results) {
+                try {
+                    loaded += result.get();
+                } catch (ExecutionException e) {
+                    log.error("Load worker failed", e.getCause());
+                    if (failure == null) {
+                        failure = e.getCause() instanceof Exception cause ? cause : e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            log.info("Load finished. {} rows loaded from {}", loaded, dir);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /** Takes chunks off the queue until it is empty or another worker failed; returns the rows loaded. */
+    private long loadChunks(Path dir, String columns, Queue<ChunkManifest.Chunk> queue, AtomicBoolean failed, int worker,
+                            long start) throws Exception {
+        MigrationMetrics metrics = new MigrationMetrics(config.taskName(), "load-" + worker);
+        long loaded = 0;
+        try (Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword());
+             ProgressStore progress = new ProgressStore(dst)) {
+            CopyManager copy = dst.unwrap(PGConnection.class).getCopyAPI();
+            MergeLoader merger = null;
+            if ("merge".equals(config.loadMode())) {
+                merger = new MergeLoader(dst, config.targetTable(), columns, config.keyColumn(), config.mergeAction(),
+                        config.taskName() + "_load_" + worker);
+                merger.prepare();
+            }
+            ChunkManifest.Chunk chunk;
+            while (!failed.get() && (chunk = queue.poll()) != null) {
+                String task = config.taskName() + "@" + chunk.fileName();
+                if (progress.load(task) != null) {
+                    log.debug("{} was loaded before, skipping", chunk.fileName());
+                    continue;
+                }
+                try {
+                    long chunkStart = System.nanoTime();
+                    long rows = load(copy, dst, dir.resolve(chunk.fileName()), chunk, columns, merger, progress, task, metrics);
+                    metrics.time(MigrationMetrics.LOAD, chunkStart);
+                    metrics.rows(rows);
+                    loaded += rows;
+                    log.info("{}: loaded {} with {} rows ({} recs/sec on this worker)", config.taskName(), chunk.fileName(),
+                            rows, String.format("%.2f", loaded / ((System.nanoTime() - start) / 1e9)));
+                } catch (Exception e) {
+                    failed.set(true);
+                    metrics.error();
+                    throw e;
+                }
+            }
+            if (merger != null) {
+                merger.drop();
+            }
+        }
+        return loaded;
+    }
+
+    /** Copies one chunk into the target and records it as loaded, in one transaction. */
+    private long load(CopyManager copy, Connection dst, Path file, ChunkManifest.Chunk chunk, String columns,
+                      MergeLoader merger, ProgressStore progress, String task, MigrationMetrics metrics) throws Exception {
+        dst.setAutoCommit(false);
+        String target = merger != null ? merger.copyTarget() : config.targetTable() + " (" + columns + ")";
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             InputStream compressed = open(file, channel, chunk, crc);
+             InputStream gzip = new GZIPInputStream(compressed, READ_BUFFER)) {
+            CopyIn in = copy.copyIn("COPY " + target + " FROM STDIN WITH (FORMAT CSV)");
+            long rows;
+            try {
+                byte[] buffer = new byte[READ_BUFFER];
+                long bytes = 0;
+                int n;
+                while ((n = gzip.read(buffer)) != -1) {
+                    in.writeToCopy(buffer, 0, n);
+                    bytes += n;
+                }
+                rows = in.endCopy();
+                metrics.bytesIn(bytes);
+            } finally {
+                if (in.isActive()) {
+                    in.cancelCopy();
+                }
+            }
+            // a streamed file is only checksummed as far as gzip read it
+            compressed.transferTo(OutputStream.nullOutputStream());
+            verify(file, chunk, crc);
+            if (rows != chunk.rows()) {
+                throw new IllegalStateException(file + " loaded " + rows + " rows, the manifest lists " + chunk.rows());
+            }
+            if (merger != null) {
+                merger.merge();
+            }
+            progress.checkpoint(task, chunk.to());
+            dst.commit();
+            return rows;
+        } catch (Exception e) {
+            dst.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * The compressed bytes of a chunk. A file that fits in one mapping is mapped and checked
+     * before anything is sent to the target; a larger one is checksummed as it is read.
+     */
+    private static InputStream open(Path file, FileChannel channel, ChunkManifest.Chunk chunk, CRC32C crc) throws Exception {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            return new CheckedInputStream(Channels.newInputStream(channel), crc);
+        }
+        ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        crc.update(mapped.duplicate());
+        verify(file, chunk, crc);
+        return new ByteBufferInputStream(mapped);
+    }
+
+    private static void verify(Path file, ChunkManifest.Chunk chunk, CRC32C crc) {
+        if (crc.getValue() != chunk.crc()) {
+            throw new IllegalStateException(file + " is corrupt: CRC-32C " + Long.toHexString(crc.getValue()) +
+                    " instead of " + Long.toHexString(chunk.crc()));
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
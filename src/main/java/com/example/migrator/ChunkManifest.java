@@ -0,0 +1,178 @@
+package com.example.migrator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The index of an extract on disk, {@code manifest.tsv} next to the chunk files. A header of
+ * {@code name<TAB>value} lines describes what was extracted, then one {@code chunk} line is
+ * appended per finished chunk and a {@code complete} line once the extract is done:
+ * <pre>
+ * format   csv-gzip-crc32c
+ * columns  id, birthday
+ * chunk    1  \N      000100  100  1234  89abcdef
+ * chunk    2  000100  000200  100  1240  01234567
+ * complete 2  200
+ * </pre>
+ * A chunk is listed only after its file is on disk under its final name, so the manifest is
+ * what an interrupted extract resumes from. Fields escape tabs, newlines and backslashes;
+ * {@code \N} is a missing bound.
+ */
+public class ChunkManifest {
+    static final String FILE = "manifest.tsv";
+    static final String FORMAT = "csv-gzip-crc32c";
+
+    /** One chunk file: the rows with keys in {@code (from, to]}, its size and CRC-32C as written. */
+    public record Chunk(int number, String from, String to, long rows, long bytes, long crc) {
+        public String fileName() {
+            return String.format("chunk-%06d.csv.gz", number);
+        }
+    }
+
+    private final Path file;
+    private final Map<String, String> header;
+    private final List<Chunk> chunks;
+    private boolean complete;
+
+    private ChunkManifest(Path file, Map<String, String> header, List<Chunk> chunks, boolean complete) {
+        this.file = file;
+        this.header = header;
+        this.chunks = chunks;
+        this.complete = complete;
+    }
+
+    /** Reads the manifest in {@code dir}; fails if there is none. */
+    public static ChunkManifest read(Path dir) throws IOException {
+        Path file = dir.resolve(FILE);
+        if (!Files.exists(file)) {
+            throw new IllegalStateException("No extract in " + dir + ": " + FILE + " is missing");
+        }
+        Map<String, String> header = new LinkedHashMap<>();
+        List<Chunk> chunks = new ArrayList<>();
+        boolean complete = false;
+        String text = Files.readString(file, StandardCharsets.UTF_8);
+        // a line without its newline was cut off by a crash and does not count
+        for (String line : text.substring(0, text.lastIndexOf('\n') + 1).split("\n")) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] f = line.split("\t", -1);
+            switch (f[0]) {
+                case "chunk" -> chunks.add(new Chunk(Integer.parseInt(f[1]), unescape(f[2]), unescape(f[3]),
+                        Long.parseLong(f[4]), Long.parseLong(f[5]), Long.parseUnsignedLong(f[6], 16)));
+                case "complete" -> complete = true;
+                default -> header.put(f[0], unescape(f[1]));
+            }
+        }
+        return new ChunkManifest(file, header, chunks, complete);
+    }
+
+    /**
+     * Opens the manifest in {@code dir} to add chunks to, creating it with {@code header} if
+     * there is none. An existing manifest must describe the same extract.
+     */
+    public static ChunkManifest open(Path dir, Map<String, String> header) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve(FILE);
+        if (!Files.exists(file)) {
+            StringBuilder text = new StringBuilder();
+            header.forEach((name, value) -> text.append(name).append('\t').append(escape(value)).append('\n'));
+            Path tmp = dir.resolve(FILE + ".tmp");
+            Files.writeString(tmp, text, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            return new ChunkManifest(file, new LinkedHashMap<>(header), new ArrayList<>(), false);
+        }
+        ChunkManifest manifest = read(dir);
+        if (!manifest.header.equals(header)) {
+            throw new IllegalStateException("The extract in " + dir + " was made with other settings: " + manifest.header +
+                    "; remove it or point chunkDir elsewhere");
+        }
+        // drop a line cut off by a crash, so appends start on a fresh line
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            String text = Files.readString(file, StandardCharsets.UTF_8);
+            channel.truncate(text.substring(0, text.lastIndexOf('\n') + 1).getBytes(StandardCharsets.UTF_8).length);
+        }
+        return manifest;
+    }
+
+    public Map<String, String> header() {
+        return header;
+    }
+
+    public List<Chunk> chunks() {
+        return chunks;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /** The upper bound of the last chunk written, or null before the first. */
+    public String lastId() {
+        return chunks.isEmpty() ? null : chunks.get(chunks.size() - 1).to();
+    }
+
+    public long rows() {
+        return chunks.stream().mapToLong(Chunk::rows).sum();
+    }
+
+    public void append(Chunk chunk) throws IOException {
+        appendLine(String.join("\t", "chunk", String.valueOf(chunk.number()), escape(chunk.from()), escape(chunk.to()),
+                String.valueOf(chunk.rows()), String.valueOf(chunk.bytes()), Long.toHexString(chunk.crc())));
+        chunks.add(chunk);
+    }
+
+    public void complete() throws IOException {
+        appendLine("complete\t" + chunks.size() + "\t" + rows());
+        complete = true;
+    }
+
+    private void appendLine(String line) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer bytes = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+        }
+    }
+
+    static String escape(String value) {
+        if (value == null) {
+            return "\\N";
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String field) {
+        if ("\\N".equals(field)) {
+            return null;
+        }
+        StringBuilder value = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                value.append(switch (next) {
+                    case 't' -> '\t';
+                    case 'n' -> '\n';
+                    case 'r' -> '\r';
+                    default -> next;
+                });
+            } else {
+                value.append(c);
+            }
+        }
+        return value.toString();
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Work table of key-range chunks shared by every pod running a task. A chunk is claimed with
+ * {@code FOR UPDATE SKIP LOCKED}, so concurrent claimers never wait on or take the same row,
+ * and is held under a lease that its owner keeps renewing. A chunk whose lease ran out is
+ * claimable again, and its new owner resumes from the chunk's own progress row.
+ */
+public class ChunkQueue {
+    private static final Logger log = LoggerFactory.getLogger(ChunkQueue.class);
+
+    /** Thrown into a batch transaction of a chunk whose lease its owner no longer holds. */
+    public static class LeaseLostException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        public LeaseLostException(String message) {
+            super(message);
+        }
+    }
+
+    private static final String CLAIMABLE = "task_name = ? AND (status = 'pending' OR (status = 'running' AND lease_until < now()))";
+
+    private final Connection dst;
+    private final String task;
+    private final int leaseSeconds;
+
+    public ChunkQueue(Connection dst, String task, int leaseSeconds) {
+        this.dst = dst;
+        this.task = task;
+        this.leaseSeconds = leaseSeconds;
+    }
+
+    public void ensureTable() throws Exception {
+        dst.setAutoCommit(true);
+        try (Statement st = dst.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS migration_chunks (task_name text, chunk_no int, range_start text, " +
+                    "range_end text, status text not null default 'pending', owner text, lease_until timestamptz, " +
+                    "primary key (task_name, chunk_no))");
+        }
+    }
+
+    /**
+     * Stores the chunks returned by {@code planner} unless another pod already has. Pods starting
+     * together serialize on an advisory lock, so exactly one of them plans.
+     */
+    public int planIfEmpty(Callable<List<Partition>> planner) throws Exception {
+        dst.setAutoCommit(false);
+        try {
+            try (PreparedStatement lock = dst.prepareStatement("SELECT pg_advisory_xact_lock(hashtext(?))")) {
+                lock.setString(1, "migration_chunks:" + task);
+                lock.execute();
+            }
+            int existing;
+            try (PreparedStatement count = dst.prepareStatement("SELECT count(*) FROM migration_chunks WHERE task_name = ?")) {
+                count.setString(1, task);
+                try (ResultSet rs = count.executeQuery()) {
+                    rs.next();
+                    existing = rs.getInt(1);
+                }
+            }
+            if (existing > 0) {
+                dst.commit();
+                log.info("Task {} already has {} chunks", task, existing);
+                return existing;
+            }
+            List<Partition> chunks = planner.call();
+            try (PreparedStatement insert = dst.prepareStatement("INSERT INTO migration_chunks(task_name, chunk_no, range_start, range_end) " +
+                    "VALUES (?, ?, ?, ?)")) {
+                for (Partition chunk : chunks) {
+                    insert.setString(1, task);
+                    insert.setInt(2, chunk.number());
+                    insert.setString(3, chunk.from());
+                    insert.setString(4, chunk.to());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            dst.commit();
+            log.info("Planned {} chunks for task {}", chunks.size(), task);
+            return chunks.size();
+        } catch (Exception e) {
+            dst.rollback();
+            throw e;
+        }
+    }
+
+    /** Claims a pending or abandoned chunk for {@code owner}, or returns null when none is free. */
+    public Partition claim(String owner) throws Exception {
+        dst.setAutoCommit(false);
+        try {
+            Partition chunk = null;
+            String previousOwner = null;
+            try (PreparedStatement select = dst.prepareStatement("SELECT chunk_no, range_start, range_end, owner FROM migration_chunks " +
+                    "WHERE " + CLAIMABLE + " ORDER BY chunk_no LIMIT 1 FOR UPDATE SKIP LOCKED")) {
+                select.setString(1, task);
+                try (ResultSet rs = select.executeQuery()) {
+                    if (rs.next()) {
+                        chunk = new Partition(rs.getInt(1), rs.getString(2), rs.getString(3));
+                        previousOwner = rs.getString(4);
+                    }
+                }
+            }
+            if (chunk != null) {
+                try (PreparedStatement update = dst.prepareStatement("UPDATE migration_chunks SET status = 'running', owner = ?, " +
+                        "lease_until = now() + make_interval(secs => ?) WHERE task_name = ? AND chunk_no = ?")) {
+                    update.setString(1, owner);
+                    update.setInt(2, leaseSeconds);
+                    update.setString(3, task);
+                    update.setInt(4, chunk.number());
+                    update.executeUpdate();
+                }
+                if (previousOwner != null) {
+                    log.warn("Reclaimed chunk {} from {}, whose lease expired", chunk.number(), previousOwner);
+                }
+            }
+            dst.commit();
+            return chunk;
+        } catch (Exception e) {
+            dst.rollback();
+            throw e;
+        }
+    }
+
+    /** Extends the lease of every chunk {@code owner} is running; returns how many it still holds. */
+    public int renew(String owner) throws Exception {
+        dst.setAutoCommit(true);
+        try (PreparedStatement update = dst.prepareStatement("UPDATE migration_chunks SET lease_until = now() + make_interval(secs => ?) " +
+                "WHERE task_name = ? AND owner = ? AND status = 'running'")) {
+            update.setInt(1, leaseSeconds);
+            update.setString(2, task);
+            update.setString(3, owner);
+            return update.executeUpdate();
+        }
+    }
+
+    /**
+     * Fails unless {@code owner} still holds the lease of {@code chunk}. Run on a batch's own
+     * connection inside its transaction: the chunk row stays share-locked until that transaction
+     * ends, so the chunk cannot be reclaimed between this check and the batch's commit.
+     */
+    public void checkLease(Connection batch, Partition chunk, String owner) throws Exception {
+        try (PreparedStatement check = batch.prepareStatement("SELECT 1 FROM migration_chunks WHERE task_name = ? AND chunk_no = ? " +
+                "AND owner = ? AND status = 'running' AND lease_until > now() FOR SHARE")) {
+            check.setString(1, task);
+            check.setInt(2, chunk.number());
+            check.setString(3, owner);
+            try (ResultSet rs = check.executeQuery()) {
+                if (!rs.next()) {
+                    throw new LeaseLostException("Lease on chunk " + chunk.number() + " of " + owner + " has expired or been taken over");
+                }
+            }
+        }
+    }
+
+    public void complete(Partition chunk, String owner) throws Exception {
+        if (finish(chunk, owner, "done") == 0) {
+            log.warn("Chunk {} finished after its lease passed to another owner", chunk.number());
+        }
+    }
+
+    /** Hands a failed chunk back without waiting for its lease to run out. */
+    public void release(Partition chunk, String owner) throws Exception {
+        finish(chunk, owner, "pending");
+    }
+
+    private int finish(Partition chunk, String owner, String status) throws Exception {
+        dst.setAutoCommit(true);
+        try (PreparedStatement update = dst.prepareStatement("UPDATE migration_chunks SET status = ?, lease_until = NULL, " +
+                "owner = CASE WHEN ? = 'done' THEN owner END WHERE task_name = ? AND chunk_no = ? AND owner = ?")) {
+            update.setString(1, status);
+            update.setString(2, status);
+            update.setString(3, task);
+            update.setInt(4, chunk.number());
+            update.setString(5, owner);
+            return update.executeUpdate();
+        }
+    }
+
+    /** Number of chunks not yet done, including ones other pods are running. */
+    public int remaining() throws Exception {
+        dst.setAutoCommit(true);
+        try (PreparedStatement count = dst.prepareStatement("SELECT count(*) FROM migration_chunks WHERE task_name = ? AND status <> 'done'")) {
+            count.setString(1, task);
+            try (ResultSet rs = count.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+}
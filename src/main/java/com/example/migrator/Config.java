@@ -4,10 +4,11 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import org.springframework.core.env.Environment;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.function.UnaryOperator;
 
 @ConfigurationProperties(prefix = "migration")
 public record Config(
@@ -20,53 +21,199 @@ public record Config(
         int batchSize,
         String taskName,
         List<String> ids,
-        String impl) {
+        String impl,
+        String copyMode,
+        int streamBufferSize,
+        String extractMode,
+        int parallelism,
+        int partitions,
+        int pipelineDepth,
+        String loadMode,
+        String mergeAction,
+        boolean bulkLoad,
+        int indexBuildParallelism,
+        String maintenanceWorkMem,
+        int minBatchSize,
+        int maxBatchSize,
+        long targetBatchMillis,
+        int chunks,
+        int leaseSeconds,
+        boolean consistentSnapshot,
+        String syncWatermarkColumn,
+        boolean verifyRepair,
+        long maxRowsPerSecond,
+        long maxBytesPerSecond,
+        int maxSourceActiveBackends,
+        long maxReplicationLagMillis,
+        long maxSourceLatencyMillis,
+        long healthCheckMillis,
+        String sourceColumns,
+        String targetTable,
+        String targetColumns,
+        String transforms,
+        String sourceTable,
+        String sourceFilter,
+        String keyColumn,
+        int connectionBudget,
+        List<TableJob> tables,
+        String failureMode,
+        int maxRetries,
+        long retryBackoffMillis,
+        String chunkDir,
+        int chunkRows) {
+
+    static final String KIDS_FILTER = "birthDay > current_date - interval '18 years'";
+
+    public Config(String sourceUrl, String sourceUser, String sourcePassword,
+                  String targetUrl, String targetUser, String targetPassword,
+                  int batchSize, String taskName, List<String> ids, String impl) {
+        this(sourceUrl, sourceUser, sourcePassword, targetUrl, targetUser, targetPassword,
+                batchSize, taskName, ids, impl, "csv", 1 << 20, "ids", 4, 4, 0, "insert", "update", false, 2, "1GB",
+                batchSize, batchSize, 0, 64, 60, false, "", false,
+                0, 0, 0, 0, 0, 5000, "id, birthday", "kids", "", "",
+                "person", KIDS_FILTER, "id", 8, List.of(), "abort", 3, 1000, "chunks", 100_000);
+    }
+
+    public Config withTargetUrl(String url) {
+        return new Config(sourceUrl, sourceUser, sourcePassword, url, targetUser, targetPassword,
+                batchSize, taskName, ids, impl, copyMode, streamBufferSize, extractMode, parallelism, partitions,
+                pipelineDepth, loadMode, mergeAction, bulkLoad, indexBuildParallelism, maintenanceWorkMem,
+                minBatchSize, maxBatchSize, targetBatchMillis, chunks, leaseSeconds, consistentSnapshot,
+                syncWatermarkColumn, verifyRepair, maxRowsPerSecond, maxBytesPerSecond, maxSourceActiveBackends,
+                maxReplicationLagMillis, maxSourceLatencyMillis, healthCheckMillis, sourceColumns, targetTable, targetColumns,
+                transforms, sourceTable, sourceFilter, keyColumn, connectionBudget, tables, failureMode, maxRetries,
+                retryBackoffMillis, chunkDir, chunkRows);
+    }
+
+    /** The settings for copying one table of a multi-table plan, with a progress entry of its own. */
+    public Config forTable(TableJob job) {
+        return new Config(sourceUrl, sourceUser, sourcePassword, targetUrl, targetUser, targetPassword,
+                batchSize, taskName + ":" + job.name(), null, impl, copyMode, streamBufferSize, "keyset", parallelism, partitions,
+                pipelineDepth, loadMode, mergeAction, bulkLoad, indexBuildParallelism, maintenanceWorkMem,
+                minBatchSize, maxBatchSize, targetBatchMillis, chunks, leaseSeconds, consistentSnapshot,
+                syncWatermarkColumn, verifyRepair, maxRowsPerSecond, maxBytesPerSecond, maxSourceActiveBackends,
+                maxReplicationLagMillis, maxSourceLatencyMillis, healthCheckMillis, job.sourceColumns(), job.targetTable(),
+                job.targetColumns(), job.transforms(), job.sourceTable(), job.sourceFilter(), job.keyColumn(), connectionBudget,
+                List.of(), failureMode, maxRetries, retryBackoffMillis, chunkDir, chunkRows);
+    }
+
+    /**
+     * Column names of a service that moves {@code sourceColumns} into {@code targetTable} as they
+     * are, by row key; fails on settings it cannot honour.
+     */
+    public List<String> plainColumns(String service) {
+        if (!transforms.isBlank() || !targetColumns.isBlank()) {
+            throw new IllegalArgumentException("impl=" + service + " copies sourceColumns as they are; " +
+                    "use impl=copy for transforms and targetColumns");
+        }
+        List<String> columns = RowTransforms.columnNames(sourceColumns);
+        if (!columns.contains(keyColumn)) {
+            throw new IllegalArgumentException("impl=" + service + " needs keyColumn " + keyColumn + " among sourceColumns " +
+                    sourceColumns);
+        }
+        return columns;
+    }
 
     public static Config from(Properties props) {
-        String idsFile = props.getProperty("idsFile");
+        return from(props::getProperty);
+    }
+
+    public static Config from(Environment env) {
+        return from(key -> env.getProperty("migration." + key));
+    }
+
+    private static Config from(UnaryOperator<String> props) {
+        String idsFile = props.apply("idsFile");
         List<String> ids = null;
         if (idsFile != null) {
-            try (var reader = new java.io.BufferedReader(new java.io.FileReader(idsFile))) {
-                ids = reader.lines().filter(s -> !s.isBlank()).collect(Collectors.toList());
+            try {
+                ids = IdsFile.open(Path.of(idsFile));
             } catch (Exception e) {
                 throw new RuntimeException("Failed to read ids file", e);
             }
         }
+        int batchSize = Integer.parseInt(orDefault(props, "batchSize", "1000"));
+        int parallelism = Integer.parseInt(orDefault(props, "parallelism", "4"));
         return new Config(
-                props.getProperty("source.url"),
-                props.getProperty("source.user"),
-                props.getProperty("source.password"),
-                props.getProperty("target.url"),
-                props.getProperty("target.user"),
-                props.getProperty("target.password"),
-                Integer.parseInt(props.getProperty("batchSize", "1000")),
-                props.getProperty("taskName", "default"),
+                props.apply("source.url"),
+                props.apply("source.user"),
+                props.apply("source.password"),
+                props.apply("target.url"),
+                props.apply("target.user"),
+                props.apply("target.password"),
+                batchSize,
+                orDefault(props, "taskName", "default"),
                 ids,
-                props.getProperty("impl", "copy")
+                orDefault(props, "impl", "copy"),
+                orDefault(props, "copyMode", "csv"),
+                Integer.parseInt(orDefault(props, "streamBufferSize", "1048576")),
+                orDefault(props, "extractMode", "ids"),
+                parallelism,
+                Integer.parseInt(orDefault(props, "partitions", String.valueOf(parallelism))),
+                Integer.parseInt(orDefault(props, "pipelineDepth", "0")),
+                orDefault(props, "loadMode", "insert"),
+                orDefault(props, "mergeAction", "update"),
+                Boolean.parseBoolean(orDefault(props, "bulkLoad", "false")),
+                Integer.parseInt(orDefault(props, "indexBuildParallelism", "2")),
+                orDefault(props, "maintenanceWorkMem", "1GB"),
+                Integer.parseInt(orDefault(props, "minBatchSize", String.valueOf(batchSize))),
+                Integer.parseInt(orDefault(props, "maxBatchSize", String.valueOf(batchSize))),
+                Long.parseLong(orDefault(props, "targetBatchMillis", "0")),
+                Integer.parseInt(orDefault(props, "chunks", "64")),
+                Integer.parseInt(orDefault(props, "leaseSeconds", "60")),
+                Boolean.parseBoolean(orDefault(props, "consistentSnapshot", "false")),
+                orDefault(props, "syncWatermarkColumn", ""),
+                Boolean.parseBoolean(orDefault(props, "verifyRepair", "false")),
+                Long.parseLong(orDefault(props, "maxRowsPerSecond", "0")),
+                Long.parseLong(orDefault(props, "maxBytesPerSecond", "0")),
+                Integer.parseInt(orDefault(props, "maxSourceActiveBackends", "0")),
+                Long.parseLong(orDefault(props, "maxReplicationLagMillis", "0")),
+                Long.parseLong(orDefault(props, "maxSourceLatencyMillis", "0")),
+                Long.parseLong(orDefault(props, "healthCheckMillis", "5000")),
+                orDefault(props, "sourceColumns", "id, birthday"),
+                orDefault(props, "targetTable", "kids"),
+                orDefault(props, "targetColumns", ""),
+                orDefault(props, "transforms", ""),
+                orDefault(props, "sourceTable", "person"),
+                orDefault(props, "sourceFilter", KIDS_FILTER),
+                orDefault(props, "keyColumn", "id"),
+                Integer.parseInt(orDefault(props, "connectionBudget", "8")),
+                tables(props),
+                orDefault(props, "failureMode", "abort"),
+                Integer.parseInt(orDefault(props, "maxRetries", "3")),
+                Long.parseLong(orDefault(props, "retryBackoffMillis", "1000")),
+                orDefault(props, "chunkDir", "chunks"),
+                Integer.parseInt(orDefault(props, "chunkRows", "100000"))
         );
     }
 
-    public static Config from(Environment env) {
-        String idsFile = env.getProperty("migration.idsFile");
-        List<String> ids = null;
-        if (idsFile != null) {
-            try (var reader = new java.io.BufferedReader(new java.io.FileReader(idsFile))) {
-                ids = reader.lines().filter(s -> !s.isBlank()).collect(Collectors.toList());
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to read ids file", e);
+    /** Table jobs listed in {@code tables}, each configured under {@code table.<name>.}. */
+    private static List<TableJob> tables(UnaryOperator<String> props) {
+        List<TableJob> tables = new ArrayList<>();
+        for (String name : orDefault(props, "tables", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
             }
+            String prefix = "table." + name + ".";
+            String columns = props.apply(prefix + "columns");
+            if (columns == null) {
+                throw new IllegalArgumentException("Table " + name + " needs " + prefix + "columns");
+            }
+            tables.add(new TableJob(name,
+                    orDefault(props, prefix + "source", name),
+                    columns,
+                    orDefault(props, prefix + "filter", "true"),
+                    orDefault(props, prefix + "key", "id"),
+                    orDefault(props, prefix + "target", name),
+                    orDefault(props, prefix + "targetColumns", ""),
+                    orDefault(props, prefix + "transforms", "")));
         }
-        return new Config(
-                env.getProperty("migration.source.url"),
-                env.getProperty("migration.source.user"),
-                env.getProperty("migration.source.password"),
-                env.getProperty("migration.target.url"),
-                env.getProperty("migration.target.user"),
-                env.getProperty("migration.target.password"),
-                Integer.parseInt(env.getProperty("migration.batchSize", "1000")),
-                env.getProperty("migration.taskName", "default"),
-                ids,
-                env.getProperty("migration.impl", "copy")
-        );
+        return tables;
+    }
+
+    private static String orDefault(UnaryOperator<String> props, String key, String defaultValue) {
+        String value = props.apply(key);
+        return value != null ? value : defaultValue;
     }
 }
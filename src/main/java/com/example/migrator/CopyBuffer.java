@@ -0,0 +1,87 @@
+package com.example.migrator;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Growable byte array holding one batch of COPY data. It is an {@link OutputStream} so COPY OUT
+ * can write straight into it, and is handed back to its {@link Pool} once loaded, so the array
+ * grows to the largest batch once and is then reused.
+ */
+public final class CopyBuffer extends OutputStream {
+    private byte[] bytes;
+    private int size;
+
+    public CopyBuffer(int capacity) {
+        this.bytes = new byte[Math.max(16, capacity)];
+    }
+
+    /** A buffer over existing data, such as a test batch or the output of a converter. */
+    public static CopyBuffer wrap(byte[] data) {
+        CopyBuffer buffer = new CopyBuffer(0);
+        buffer.bytes = data;
+        buffer.size = data.length;
+        return buffer;
+    }
+
+    public byte[] array() {
+        return bytes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    void ensureCapacity(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(b, off, bytes, size, len);
+        size += len;
+    }
+
+    /**
+     * Free buffers of one copy worker. Holds at most {@code capacity} buffers; any more released
+     * while it is full are left to the garbage collector.
+     */
+    public static final class Pool {
+        private final BlockingQueue<CopyBuffer> free;
+        private final int initialSize;
+
+        public Pool(int capacity, int initialSize) {
+            this.free = new ArrayBlockingQueue<>(capacity);
+            this.initialSize = initialSize;
+        }
+
+        public CopyBuffer acquire() {
+            CopyBuffer buffer = free.poll();
+            return buffer != null ? buffer : new CopyBuffer(initialSize);
+        }
+
+        public void release(CopyBuffer buffer) {
+            buffer.clear();
+            free.offer(buffer);
+        }
+    }
+}
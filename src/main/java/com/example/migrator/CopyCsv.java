@@ -0,0 +1,199 @@
+package com.example.migrator;
+
+/**
+ * Reads and writes the CSV flavour of COPY directly on bytes, without building Strings.
+ * A field is NULL when it is empty and unquoted; an empty string is written as {@code ""}.
+ * Quotes are doubled inside quoted fields, and fields holding a delimiter, quote, line break
+ * or the end-of-data marker {@code \.} are quoted.
+ */
+public final class CopyCsv {
+
+    private CopyCsv() {
+    }
+
+    /**
+     * Walks the records and fields of CSV data in place. A field is reported as a range of the
+     * underlying array; for a quoted field the range excludes the surrounding quotes but still
+     * contains doubled inner quotes.
+     */
+    public static final class Cursor {
+        private byte[] data;
+        private int limit;
+        private int pos;
+        private int recordStart;
+        private int start;
+        private int end;
+        private boolean quoted;
+        private boolean recordEnd = true;
+
+        public Cursor reset(CopyBuffer buffer) {
+            return reset(buffer.array(), buffer.size());
+        }
+
+        public Cursor reset(byte[] data, int length) {
+            this.data = data;
+            this.limit = length;
+            this.pos = 0;
+            this.recordEnd = true;
+            return this;
+        }
+
+        /** Moves to the next record, skipping what is left of the current one; false at the end of the data. */
+        public boolean nextRecord() {
+            while (nextField()) {
+                // skip unread fields
+            }
+            if (pos >= limit) {
+                return false;
+            }
+            recordStart = pos;
+            recordEnd = false;
+            return true;
+        }
+
+        /** Moves to the next field of the current record; false once the record has no more. */
+        public boolean nextField() {
+            if (recordEnd) {
+                return false;
+            }
+            if (pos < limit && data[pos] == '"') {
+                quoted = true;
+                start = ++pos;
+                while (true) {
+                    if (pos >= limit) {
+                        throw new IllegalArgumentException("Unterminated quoted field at byte " + (start - 1));
+                    }
+                    if (data[pos] == '"') {
+                        if (pos + 1 < limit && data[pos + 1] == '"') {
+                            pos += 2;
+                            continue;
+                        }
+                        end = pos++;
+                        break;
+                    }
+                    pos++;
+                }
+            } else {
+                quoted = false;
+                start = pos;
+                while (pos < limit && data[pos] != ',' && data[pos] != '\n' && data[pos] != '\r') {
+                    pos++;
+                }
+                end = pos;
+            }
+            if (pos >= limit) {
+                recordEnd = true;
+            } else if (data[pos] == ',') {
+                pos++;
+            } else {
+                if (data[pos] == '\r' && pos + 1 < limit && data[pos + 1] == '\n') {
+                    pos++;
+                }
+                pos++;
+                recordEnd = true;
+            }
+            return true;
+        }
+
+        /** Offset of the current record's first byte. */
+        public int recordStart() {
+            return recordStart;
+        }
+
+        /** Offset just past the last field read, which is the end of the record once all fields are read. */
+        public int position() {
+            return pos;
+        }
+
+        public boolean isNull() {
+            return !quoted && start == end;
+        }
+
+        public byte[] data() {
+            return data;
+        }
+
+        public int start() {
+            return start;
+        }
+
+        public int end() {
+            return end;
+        }
+
+        public boolean quoted() {
+            return quoted;
+        }
+    }
+
+    /** Appends the cursor's current field, quoting it only if its value requires it. */
+    public static void writeField(CopyBuffer out, Cursor field) {
+        if (!field.isNull()) {
+            writeValue(out, field.data(), field.start(), field.end(), field.quoted());
+        }
+    }
+
+    /**
+     * Appends a non-NULL value. With {@code escaped} the bytes come from inside a quoted field,
+     * so each quote in them is the first of a doubled pair.
+     */
+    public static void writeValue(CopyBuffer out, byte[] value, int start, int end, boolean escaped) {
+        if (!needsQuotes(value, start, end)) {
+            out.write(value, start, end - start);
+            return;
+        }
+        out.ensureCapacity(2 * (end - start) + 2);
+        out.write('"');
+        for (int i = start; i < end; i++) {
+            byte b = value[i];
+            out.write(b);
+            if (b == '"') {
+                out.write('"');
+                if (escaped) {
+                    i++;
+                }
+            }
+        }
+        out.write('"');
+    }
+
+    static boolean needsQuotes(byte[] value, int start, int end) {
+        if (start == end) {
+            return true;
+        }
+        if (end - start == 2 && value[start] == '\\' && value[start + 1] == '.') {
+            return true;
+        }
+        for (int i = start; i < end; i++) {
+            byte b = value[i];
+            if (b == ',' || b == '"' || b == '\n' || b == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static void delimiter(CopyBuffer out) {
+        out.write(',');
+    }
+
+    public static void endRecord(CopyBuffer out) {
+        out.write('\n');
+    }
+
+    /** Rewrites a batch field by field into {@code out}, normalising quoting and line endings. */
+    public static void reencode(CopyBuffer in, CopyBuffer out, Cursor cursor) {
+        cursor.reset(in);
+        while (cursor.nextRecord()) {
+            boolean first = true;
+            while (cursor.nextField()) {
+                if (!first) {
+                    delimiter(out);
+                }
+                first = false;
+                writeField(out, cursor);
+            }
+            endRecord(out);
+        }
+    }
+}
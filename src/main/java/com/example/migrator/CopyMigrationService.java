@@ -1,44 +1,71 @@
 package com.example.migrator;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
 import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 import org.postgresql.copy.CopyManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import io.prometheus.client.Counter;
-import io.prometheus.client.Gauge;
 
 import java.io.*;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class CopyMigrationService implements MigrationService {
     private static final Logger log = LoggerFactory.getLogger(CopyMigrationService.class);
 
-    static final Counter processedCounter = Counter.build()
-            .name("migrator_processed_total")
-            .help("Total processed records")
-            .register();
+    private static final int FETCH_SIZE = 10_000;
 
-    static final Counter errorCounter = Counter.build()
-            .name("migrator_errors_total")
-            .help("Total errors during migration")
-            .register();
+    private final Config config;
+    private final String sourceSql;
+    private ExecutorService copyOutExecutor;
+    private BinaryCopyCodec binaryCodec;
+    private ProgressStore progress;
+    private MergeLoader merger;
+    private BatchSizer sizer;
+    private MigrationMetrics metrics;
+    private final Throttle sharedThrottle;
+    private Throttle throttle;
+    private long pacedBytes;
+    private CopyBuffer.Pool buffers;
+    private final CopyCsv.Cursor csvCursor = new CopyCsv.Cursor();
+    private RowTransforms transforms;
+    private Row row;
+    private BatchIsolator isolator;
+    private Connection target;
 
-    static final Gauge speedGauge = Gauge.build()
-            .name("migrator_speed")
-            .help("Average records per second")
-            .register();
+    /** Checks, inside each batch transaction on the target, that the batch may still commit; throws to abort it. */
+    public interface Fence {
+        void check(Connection dst) throws Exception;
+    }
 
-    private final Config config;
+    private final Fence fence;
 
     public CopyMigrationService(Config config) {
+        this(config, null);
+    }
+
+    /** Paces batches with {@code throttle}, shared with the other workers of the same run. */
+    public CopyMigrationService(Config config, Throttle throttle) {
+        this(config, throttle, null);
+    }
+
+    public CopyMigrationService(Config config, Throttle throttle, Fence fence) {
         this.config = config;
+        this.sourceSql = "SELECT " + config.sourceColumns() + " FROM " + config.sourceTable();
+        this.sharedThrottle = throttle;
+        this.fence = fence;
     }
 
     public void run() throws Exception {
@@ -52,131 +79,503 @@ public class CopyMigrationService implements MigrationService {
             log.info("Loading last processed id for task {}", config.taskName());
             String lastId = loadProgress(dst, config.taskName());
             log.info("Last processed id: {}", lastId);
-            List<String> ids = config.ids();
-            if (ids == null) {
-                log.info("Fetching ids from source");
-                ids = fetchIds(src, lastId);
-            } else if (lastId != null) {
-                log.info("Resuming from id {}", lastId);
-                ids = ids.subList(ids.indexOf(lastId) + 1, ids.size());
-            }
+            prepare(src, dst, config.taskName(), MigrationMetrics.forTask(config.taskName()));
+            try {
+                List<String> ids = config.ids();
+                if (ids == null && "keyset".equals(config.extractMode())) {
+                    long estimated = PartitionPlanner.from(config).estimateRows(src);
+                    log.info("Walking source key space after id {}, about {} ids in total", lastId, estimated);
+                    processRanges(src, dst, config.taskName(), lastId, null, estimated, start);
+                } else {
+                    if (ids == null) {
+                        log.info("Fetching ids from source");
+                        ids = fetchIds(src, lastId);
+                    } else if (lastId != null) {
+                        log.info("Resuming from id {}", lastId);
+                        ids = ids.subList(ids.indexOf(lastId) + 1, ids.size());
+                    }
 
-            log.info("Total ids to process: {}", ids.size());
-            processIds(src, dst, ids, start);
+                    log.info("Total ids to process: {}", ids.size());
+                    processIds(src, dst, ids, start);
+                }
+                dropStage();
+            } finally {
+                finish();
+            }
         }
-        log.info("Migration finished. Total processed {}", (int)processedCounter.get());
+        log.info("Migration finished. Total processed {}", MigrationMetrics.totalProcessed());
     }
 
-    private List<String> fetchIds(Connection src, String lastId) throws Exception {
-        List<String> ids = new ArrayList<>();
-        String query = "SELECT id FROM person WHERE birthDay > current_date - interval '18 years'" +
-                (lastId != null ? " AND id > '" + lastId + "'" : "") +
-                " ORDER BY id";
+    private IdSet fetchIds(Connection src, String lastId) throws Exception {
+        IdSet.Builder ids = IdSet.builder();
+        String key = config.keyColumn();
+        String query = "SELECT " + key + " FROM " + config.sourceTable() + " WHERE " + config.sourceFilter() +
+                (lastId != null ? " AND " + key + " > " + quote(lastId) : "") +
+                " ORDER BY " + key;
         log.info("Fetching ids with query: {}", query);
-        try (Statement st = src.createStatement(); ResultSet rs = st.executeQuery(query)) {
-            while (rs.next()) {
-                ids.add(rs.getString(1));
+        // stream the ids through a cursor instead of buffering the whole result set
+        src.setAutoCommit(false);
+        try (Statement st = src.createStatement()) {
+            st.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = st.executeQuery(query)) {
+                while (rs.next()) {
+                    ids.add(rs.getString(1));
+                }
             }
+        } finally {
+            src.commit();
+            src.setAutoCommit(true);
         }
-        log.info("Fetched {} ids", ids.size());
-        return ids;
+        IdSet fetched = ids.build();
+        log.info("Fetched {} {} ids", fetched.size(), fetched.isNumeric() ? "numeric" : "text");
+        return fetched;
+    }
+
+    /** One unit of work: a query over the source and the id to checkpoint once its rows are loaded. */
+    private record BatchSpec(String select, String lastId) {
+    }
+
+    private interface BatchSource {
+        /** Returns the next batch to copy, or null when there is nothing left. */
+        BatchSpec next() throws Exception;
     }
 
     private void processIds(Connection src, Connection dst, List<String> ids, long start) throws Exception {
         if (ids.isEmpty()) {
             return;
         }
+        Iterator<String> it = ids.iterator();
+        List<String> batch = new ArrayList<>(config.batchSize());
+        BatchSource source = () -> {
+            batch.clear();
+            int batchSize = sizer.size();
+            while (it.hasNext() && batch.size() < batchSize) {
+                batch.add(it.next());
+            }
+            if (batch.isEmpty()) {
+                return null;
+            }
+            log.debug("Copying batch of {} ids", batch.size());
+            return new BatchSpec(sourceSql + " WHERE " + config.keyColumn() + " IN (" + inList(batch) + ")",
+                    batch.get(batch.size() - 1));
+        };
+        copyBatches(src, dst, config.taskName(), source, ids.size(), start);
+    }
+
+    /**
+     * Copies one partition of the key space on the given connections, resuming from the
+     * partition's own progress row.
+     */
+    long migratePartition(Connection src, Connection dst, Partition partition, long estimated, long start) throws Exception {
+        String task = partition.progressKey(config.taskName());
+        String lastId = loadProgress(dst, task);
+        if (lastId == null) {
+            lastId = partition.from();
+        }
+        log.info("Partition {}: copying ids after {} up to {}", partition.number(), lastId, partition.to());
+        prepare(src, dst, task, new MigrationMetrics(config.taskName(), String.valueOf(partition.number())));
+        try {
+            long processed = processRanges(src, dst, task, lastId, partition.to(), estimated, start);
+            dropStage();
+            return processed;
+        } finally {
+            finish();
+        }
+    }
+
+    private void dropStage() throws Exception {
+        if (merger != null) {
+            merger.drop();
+        }
+    }
+
+    private void finish() throws Exception {
+        copyOutExecutor.shutdownNow();
+        progress.close();
+        if (throttle != sharedThrottle) {
+            throttle.close();
+        }
+    }
+
+    private void prepare(Connection src, Connection dst, String task, MigrationMetrics metrics) throws Exception {
+        this.metrics = metrics;
+        target = dst;
+        progress = new ProgressStore(dst);
+        sizer = BatchSizer.from(config, metrics.task(), metrics.partition());
+        throttle = sharedThrottle != null ? sharedThrottle : new Throttle(config);
+        // one buffer per queued batch, plus the ones being extracted, transformed and loaded
+        buffers = new CopyBuffer.Pool(config.pipelineDepth() + 3, 64 * 1024);
+        transforms = RowTransforms.from(config);
+        if (!transforms.isEmpty() && !"csv".equals(config.copyMode())) {
+            throw new IllegalArgumentException("Transforms and column mapping need copyMode csv, not " + config.copyMode());
+        }
+        if ("stream".equals(config.copyMode()) && config.pipelineDepth() > 0) {
+            // the pipeline hands whole extracted batches to the writer, which a pipe cannot do
+            throw new IllegalArgumentException("copyMode stream pipes each batch straight into the target and cannot " +
+                    "run with pipelineDepth " + config.pipelineDepth() + "; use copyMode csv or pipelineDepth 0");
+        }
+        row = transforms.newRow();
+        if (isolating()) {
+            if ("binary".equals(config.copyMode())) {
+                throw new IllegalArgumentException("failureMode isolate splits CSV batches and needs copyMode csv or stream");
+            }
+            isolator = new BatchIsolator(dst, task, metrics);
+            isolator.ensureTable();
+        }
+        if ("merge".equals(config.loadMode())) {
+            merger = new MergeLoader(dst, config.targetTable(), transforms.targetColumns(), config.keyColumn(), config.mergeAction(), task);
+            merger.prepare();
+        }
+        if ("binary".equals(config.copyMode())) {
+            binaryCodec = BinaryCopyCodec.between(src, sourceSql, dst, config.targetTable(), transforms.targetColumns());
+            log.info("Binary copy {}", binaryCodec == null ? "passes data through unchanged" : "converts mismatched column types");
+        }
+        copyOutExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "copy-out-" + task);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private long processRanges(Connection src, Connection dst, String task, String lastId, String upperLimit,
+                               long estimated, long start) throws Exception {
+        try (PreparedStatement firstBound = src.prepareStatement(boundSql(config, false, upperLimit != null));
+             PreparedStatement nextBound = src.prepareStatement(boundSql(config, true, upperLimit != null))) {
+            String[] last = {lastId};
+            BatchSource source = () -> {
+                String upper = nextBound(last[0] == null ? firstBound : nextBound, last[0], upperLimit, sizer.size());
+                if (upper == null) {
+                    return null;
+                }
+                log.debug("Copying id range ({}, {}]", last[0], upper);
+                String select = sourceSql + " WHERE " + config.sourceFilter() +
+                        (last[0] != null ? " AND " + config.keyColumn() + " > " + quote(last[0]) : "") +
+                        " AND " + config.keyColumn() + " <= " + quote(upper);
+                last[0] = upper;
+                return new BatchSpec(select, upper);
+            };
+            return copyBatches(src, dst, task, source, estimated, start);
+        }
+    }
+
+    private long copyBatches(Connection src, Connection dst, String task, BatchSource source, long total,
+                             long start) throws Exception {
         CopyManager srcCopy = src.unwrap(PGConnection.class).getCopyAPI();
         CopyManager dstCopy = dst.unwrap(PGConnection.class).getCopyAPI();
+        long[] processed = {0};
+        if (config.pipelineDepth() > 0) {
+            CopyPipeline pipeline = new CopyPipeline(task, metrics, config.pipelineDepth());
+            pipeline.run(
+                    () -> {
+                        BatchSpec spec = source.next();
+                        return spec == null ? null : new CopyPipeline.Batch(spec.lastId(), extract(srcCopy, spec.select()));
+                    },
+                    !transforming() ? null : batch -> new CopyPipeline.Batch(batch.lastId(), transform(batch.data())),
+                    batch -> {
+                        long batchStart = System.nanoTime();
+                        long rows = load(dstCopy, dst, batch.data(), task, batch.lastId());
+                        long batchNanos = System.nanoTime() - batchStart;
+                        sizer.record(rows, batchNanos);
+                        afterBatch(task, rows, batchNanos, batch.lastId(), processed, total, start);
+                    });
+            return processed[0];
+        }
+        BatchSpec spec;
+        while ((spec = source.next()) != null) {
+            long batchStart = System.nanoTime();
+            long rows = copySelect(srcCopy, dstCopy, dst, spec, task);
+            long batchNanos = System.nanoTime() - batchStart;
+            sizer.record(rows, batchNanos);
+            afterBatch(task, rows, batchNanos, spec.lastId(), processed, total, start);
+        }
+        return processed[0];
+    }
+
+    private void afterBatch(String task, long rows, long batchNanos, String lastId, long[] processed, long total,
+                            long start) throws Exception {
+        double recent = metrics.rows(rows);
+        processed[0] += rows;
+        double duration = (System.nanoTime() - start) / 1_000_000_000.0;
+        double speed = processed[0] / duration;
+        metrics.speed(speed);
+        log.info("{}: processed {} of {} ids up to {} ({} recs/sec, {} over the last minute, {})", task, processed[0], total,
+                lastId, String.format("%.2f", speed), String.format("%.2f", recent), eta(processed[0], total, speed));
+        long bytes = metrics.bytesOut() - pacedBytes;
+        pacedBytes += bytes;
+        throttle.pace(rows, bytes, batchNanos);
+    }
+
+    /** The upper bound of the next keyset batch: the largest of the next {@code LIMIT} keys after the last one. */
+    static String boundSql(Config config, boolean afterLast, boolean bounded) {
+        String key = config.keyColumn();
+        return "SELECT max(" + key + ") FROM (SELECT " + key + " FROM " + config.sourceTable() + " WHERE " + config.sourceFilter() +
+                (afterLast ? " AND " + key + " > ?" : "") +
+                (bounded ? " AND " + key + " <= ?" : "") +
+                " ORDER BY " + key + " LIMIT ?) batch";
+    }
+
+    static String nextBound(PreparedStatement bound, String lastId, String upperLimit, int batchSize) throws Exception {
+        int param = 1;
+        // untyped, so the server reads the bounds as the key column's type
+        if (lastId != null) {
+            bound.setObject(param++, lastId, Types.OTHER);
+        }
+        if (upperLimit != null) {
+            bound.setObject(param++, upperLimit, Types.OTHER);
+        }
+        bound.setInt(param, batchSize);
+        try (ResultSet rs = bound.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    static String eta(long processed, long total, double speed) {
+        if (total <= 0 || speed <= 0) {
+            return "ETA unknown";
+        }
+        long seconds = (long) (Math.max(0, total - processed) / speed);
+        return String.format("ETA %d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    static String quote(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
 
-        int batchSize = config.batchSize();
-        List<String> batch = new ArrayList<>(batchSize);
-        int processed = 0;
-        for (String id : ids) {
-            batch.add(id);
-            if (batch.size() >= batchSize) {
-                copyBatch(srcCopy, dstCopy, dst, batch);
-                processedCounter.inc(batch.size());
-                processed += batch.size();
-                double duration = (System.nanoTime() - start) / 1_000_000_000.0;
-                double speed = processed / duration;
-                speedGauge.set(speed);
-                log.info("Processed {} of {} ids ({} recs/sec)", processed, ids.size(), String.format("%.2f", speed));
-                saveProgress(dst, config.taskName(), batch.get(batch.size() - 1));
-                batch.clear();
+    static String inList(List<String> batch) {
+        return batch.stream().map(id -> "'" + id + "'").reduce((a,b) -> a + "," + b).orElse("'0'");
+    }
+
+    private long copySelect(CopyManager srcCopy, CopyManager dstCopy, Connection dst, BatchSpec spec, String task) throws Exception {
+        if (streaming()) {
+            return streamBatch(srcCopy, dstCopy, dst, copyOutSql(spec.select()), copyInSql(), task, spec.lastId());
+        }
+        CopyBuffer data = extract(srcCopy, spec.select());
+        return load(dstCopy, dst, transforming() ? transform(data) : data, task, spec.lastId());
+    }
+
+    /**
+     * Whether batches can go from source to target as raw bytes, without being decoded. Not when
+     * failures are isolated: that needs the batch at hand to split it.
+     */
+    private boolean streaming() {
+        return ("stream".equals(config.copyMode()) && !isolating()) ||
+                ("binary".equals(config.copyMode()) && binaryCodec == null);
+    }
+
+    /** Whether a failed batch is retried and split instead of ending the run. */
+    private boolean isolating() {
+        return "isolate".equals(config.failureMode());
+    }
+
+    /** Whether extracted batches need work before the load: a type conversion or configured transforms. */
+    private boolean transforming() {
+        return binaryCodec != null || !transforms.isEmpty();
+    }
+
+    private CopyBuffer transform(CopyBuffer data) throws IOException {
+        long stageStart = System.nanoTime();
+        CopyBuffer transformed;
+        if (binaryCodec != null) {
+            transformed = CopyBuffer.wrap(binaryCodec.convert(data.toByteArray()));
+        } else {
+            transformed = buffers.acquire();
+            int dropped = transforms.transform(data, transformed, csvCursor, row);
+            if (dropped > 0) {
+                log.debug("Transforms left out {} rows", dropped);
             }
         }
-        if (!batch.isEmpty()) {
-            copyBatch(srcCopy, dstCopy, dst, batch);
-            processedCounter.inc(batch.size());
-            processed += batch.size();
-            double duration = (System.nanoTime() - start) / 1_000_000_000.0;
-            double speed = processed / duration;
-            speedGauge.set(speed);
-            log.info("Processed {} of {} ids ({} recs/sec)", processed, ids.size(), String.format("%.2f", speed));
-            saveProgress(dst, config.taskName(), batch.get(batch.size() - 1));
-        }
-    }
-
-    private void copyBatch(CopyManager srcCopy, CopyManager dstCopy, Connection dst, List<String> batch) throws Exception {
-        String inList = batch.stream().map(id -> "'" + id + "'").reduce((a,b) -> a + "," + b).orElse("'0'");
-        String copyOutSql = "COPY (SELECT id, birthday FROM person WHERE id IN (" + inList + ")) TO STDOUT WITH (FORMAT CSV)";
-        String copyInSql = "COPY kids (id, birthday) FROM STDIN WITH (FORMAT CSV)";
-        try (var srcWriter = new StringWriter();
-             var writer = new StringWriter();
-             CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT)) {
-            log.debug("Copying batch of {} ids", batch.size());
-            // Copy data from the source database into a string
-            srcCopy.copyOut(copyOutSql, srcWriter);
-            // Parse each line and reprint using CSVPrinter to normalise CSV format
-            new BufferedReader(new StringReader(srcWriter.toString())).lines().forEach(line -> {
+        buffers.release(data);
+        metrics.time(MigrationMetrics.TRANSFORM, stageStart);
+        return transformed;
+    }
+
+    private String copyFormat() {
+        return "binary".equals(config.copyMode()) ? "BINARY" : "CSV";
+    }
+
+    private String copyOutSql(String select) {
+        return "COPY (" + select + ") TO STDOUT WITH (FORMAT " + copyFormat() + ")";
+    }
+
+    private String copyInSql() {
+        String target = merger != null ? merger.copyTarget() : config.targetTable() + " (" + transforms.targetColumns() + ")";
+        return "COPY " + target + " FROM STDIN WITH (FORMAT " + copyFormat() + ")";
+    }
+
+    /** Work done after COPY IN and before the commit of each batch. */
+    private void completeBatch(String task, String lastId) throws Exception {
+        merge();
+        checkpoint(task, lastId);
+    }
+
+    private void merge() throws Exception {
+        if (merger != null) {
+            long stageStart = System.nanoTime();
+            int merged = merger.merge();
+            metrics.time(MigrationMetrics.MERGE, stageStart);
+            log.debug("Merged {} new or changed rows", merged);
+        }
+    }
+
+    private void checkpoint(String task, String lastId) throws Exception {
+        long stageStart = System.nanoTime();
+        if (fence != null) {
+            fence.check(target);
+        }
+        progress.checkpoint(task, lastId);
+        metrics.time(MigrationMetrics.CHECKPOINT, stageStart);
+    }
+
+    private void commit(Connection dst) throws Exception {
+        long stageStart = System.nanoTime();
+        dst.commit();
+        metrics.time(MigrationMetrics.COMMIT, stageStart);
+    }
+
+    private CopyBuffer extract(CopyManager srcCopy, String select) throws Exception {
+        long stageStart = System.nanoTime();
+        CopyBuffer out = buffers.acquire();
+        srcCopy.copyOut(copyOutSql(select), out);
+        metrics.time(MigrationMetrics.EXTRACT, stageStart);
+        metrics.bytesOut(out.size());
+        return out;
+    }
+
+    /**
+     * Loads a batch and records it as the task's progress in one target transaction. With
+     * failureMode isolate, transient errors are retried with a doubling backoff and a batch
+     * rejected for its data is split to set the bad rows aside.
+     */
+    private long load(CopyManager dstCopy, Connection dst, CopyBuffer data, String task, String lastId) throws Exception {
+        dst.setAutoCommit(false);
+        try {
+            for (int attempt = 0; ; attempt++) {
                 try {
-                    printer.printRecord(line.split(",", 2));
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+                    long stageStart = System.nanoTime();
+                    long rows = copyIn(dstCopy, data.array(), 0, data.size());
+                    metrics.time(MigrationMetrics.LOAD, stageStart);
+                    metrics.bytesIn(data.size());
+                    completeBatch(task, lastId);
+                    commit(dst);
+                    return rows;
+                } catch (Exception e) {
+                    metrics.error();
+                    dst.rollback();
+                    SQLException cause = BatchIsolator.sqlCause(e);
+                    if (isolator != null && BatchIsolator.isTransient(cause) && attempt < config.maxRetries()) {
+                        long backoff = config.retryBackoffMillis() << attempt;
+                        log.warn("Transient error loading batch up to {}, retry {} of {} in {} ms: {}", lastId, attempt + 1,
+                                config.maxRetries(), backoff, e.getMessage());
+                        Thread.sleep(backoff);
+                    } else if (isolator != null && BatchIsolator.isDataError(cause)) {
+                        log.warn("Batch up to {} rejected, isolating the bad rows: {}", lastId, e.getMessage());
+                        return isolate(dstCopy, dst, data, cause, task, lastId);
+                    } else {
+                        log.error("Error copying batch", e);
+                        throw e;
+                    }
                 }
+            }
+        } finally {
+            buffers.release(data);
+        }
+    }
+
+    private long isolate(CopyManager dstCopy, Connection dst, CopyBuffer data, SQLException failure, String task,
+                         String lastId) throws Exception {
+        try {
+            long stageStart = System.nanoTime();
+            long rows = isolator.isolate(data, failure, lastId, (bytes, from, to) -> {
+                long loaded = copyIn(dstCopy, bytes, from, to - from);
+                merge();
+                return loaded;
             });
-            printer.flush();
-            byte[] data = writer.toString().getBytes();
-            dst.setAutoCommit(false);
+            metrics.time(MigrationMetrics.LOAD, stageStart);
+            metrics.bytesIn(data.size());
+            checkpoint(task, lastId);
+            commit(dst);
+            return rows;
+        } catch (Exception e) {
+            log.error("Error isolating the failed rows of batch up to {}", lastId, e);
+            dst.rollback();
+            throw e;
+        }
+    }
+
+    /** Writes the bytes as they are, without the InputStream copy of {@code copyIn(sql, stream)}. */
+    private long copyIn(CopyManager dstCopy, byte[] data, int offset, int length) throws Exception {
+        CopyIn in = dstCopy.copyIn(copyInSql());
+        try {
+            in.writeToCopy(data, offset, length);
+            return in.endCopy();
+        } finally {
+            if (in.isActive()) {
+                in.cancelCopy();
+            }
+        }
+    }
+
+    private long streamBatch(CopyManager srcCopy, CopyManager dstCopy, Connection dst,
+                             String copyOutSql, String copyInSql, String task, String lastId) throws Exception {
+        CopyPipe pipe = new CopyPipe(config.streamBufferSize());
+        Future<Long> copyOut = copyOutExecutor.submit(() -> {
             try {
-                dstCopy.copyIn(copyInSql, new ByteArrayInputStream(data));
-                dst.commit();
+                long stageStart = System.nanoTime();
+                OutputStream out = pipe.sink();
+                long rows = srcCopy.copyOut(copyOutSql, out);
+                out.close();
+                metrics.time(MigrationMetrics.EXTRACT, stageStart);
+                return rows;
             } catch (Exception e) {
-                errorCounter.inc();
-                log.error("Error copying batch", e);
-                dst.rollback();
+                pipe.fail(e);
                 throw e;
             }
+        });
+        dst.setAutoCommit(false);
+        try (InputStream in = pipe.source()) {
+            long stageStart = System.nanoTime();
+            long rows = dstCopy.copyIn(copyInSql, in);
+            copyOut.get();
+            // both sides run at once, so load includes waiting for the source
+            metrics.time(MigrationMetrics.LOAD, stageStart);
+            metrics.bytesOut(pipe.bytes());
+            metrics.bytesIn(pipe.bytes());
+            completeBatch(task, lastId);
+            commit(dst);
+            return rows;
+        } catch (Exception e) {
+            metrics.error();
+            log.error("Error streaming batch", e);
+            dst.rollback();
+            awaitQuietly(copyOut);
+            throw unwrap(e);
         }
     }
 
-    private void ensureProgressTable(Connection dst) throws Exception {
-        log.debug("Ensuring progress table exists");
-        try (Statement st = dst.createStatement()) {
-            st.executeUpdate("CREATE TABLE IF NOT EXISTS migration_progress (task_name text primary key, last_id text)");
+    private static void awaitQuietly(Future<?> future) {
+        try {
+            future.get();
+        } catch (Exception ignored) {
+            // the primary failure is reported by the caller
         }
     }
 
-    private String loadProgress(Connection dst, String task) throws Exception {
-        log.debug("Loading progress for task {}", task);
-        try (Statement st = dst.createStatement(); ResultSet rs = st.executeQuery("SELECT last_id FROM migration_progress WHERE task_name='" + task + "'")) {
-            if (rs.next()) {
-                return rs.getString(1);
-            }
+    private static Exception unwrap(Exception e) {
+        if (e instanceof ExecutionException && e.getCause() instanceof Exception cause) {
+            return cause;
         }
-        return null;
+        return e;
+    }
+
+    private void ensureProgressTable(Connection dst) throws Exception {
+        new ProgressStore(dst).ensureTable();
+    }
+
+    private String loadProgress(Connection dst, String task) throws Exception {
+        return new ProgressStore(dst).load(task);
     }
 
     private void saveProgress(Connection dst, String task, String lastId) throws Exception {
-        log.debug("Saving progress for task {}: {}", task, lastId);
-        dst.setAutoCommit(false);
-        try (Statement st = dst.createStatement()) {
-            int updated = st.executeUpdate("UPDATE migration_progress SET last_id='" + lastId + "' WHERE task_name='" + task + "'");
-            if (updated == 0) {
-                st.executeUpdate("INSERT INTO migration_progress(task_name, last_id) VALUES('" + task + "', '" + lastId + "')");
-            }
-        }
-        dst.commit();
+        new ProgressStore(dst).save(task, lastId);
     }
 }
@@ -0,0 +1,179 @@
+package com.example.migrator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded in-memory pipe between a COPY OUT writer thread and a COPY IN reader thread.
+ * A fixed pool of chunks circulates between the two sides, so memory stays at
+ * {@code chunks * chunkSize} bytes however much data goes through the pipe.
+ */
+public class CopyPipe {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private record Chunk(byte[] data, int length, Throwable error) {
+    }
+
+    private static final Chunk EOF = new Chunk(new byte[0], -1, null);
+
+    private final BlockingQueue<byte[]> free;
+    private final BlockingQueue<Chunk> filled;
+    private volatile boolean closed;
+    private volatile long transferred;
+
+    public CopyPipe(int bufferSize) {
+        int chunks = Math.max(2, bufferSize / CHUNK_SIZE);
+        free = new ArrayBlockingQueue<>(chunks);
+        filled = new ArrayBlockingQueue<>(chunks + 1);
+        for (int i = 0; i < chunks; i++) {
+            free.add(new byte[CHUNK_SIZE]);
+        }
+    }
+
+    /** Bytes handed from the writer to the reader so far. */
+    public long bytes() {
+        return transferred;
+    }
+
+    public OutputStream sink() {
+        return new OutputStream() {
+            private byte[] current;
+            private int length;
+
+            @Override
+            public void write(int b) throws IOException {
+                ensureChunk();
+                current[length++] = (byte) b;
+                if (length == current.length) {
+                    publish();
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    ensureChunk();
+                    int n = Math.min(len, current.length - length);
+                    System.arraycopy(b, off, current, length, n);
+                    length += n;
+                    off += n;
+                    len -= n;
+                    if (length == current.length) {
+                        publish();
+                    }
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (current != null && length > 0) {
+                    publish();
+                }
+                filled.add(EOF);
+            }
+
+            private void ensureChunk() throws IOException {
+                if (current == null) {
+                    try {
+                        current = free.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for pipe space");
+                    }
+                    length = 0;
+                }
+                if (closed) {
+                    throw new IOException("Pipe closed by reader");
+                }
+            }
+
+            private void publish() {
+                transferred += length;
+                filled.add(new Chunk(current, length, null));
+                current = null;
+            }
+        };
+    }
+
+    public InputStream source() {
+        return new InputStream() {
+            private Chunk current;
+            private int pos;
+            private Throwable failure;
+
+            @Override
+            public int read() throws IOException {
+                if (!next()) {
+                    return -1;
+                }
+                return current.data[pos++] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!next()) {
+                    return -1;
+                }
+                int n = Math.min(len, current.length - pos);
+                System.arraycopy(current.data, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+                closed = true;
+                if (current != null && current.length > 0) {
+                    free.offer(current.data);
+                }
+                current = null;
+                Chunk chunk;
+                while ((chunk = filled.poll()) != null) {
+                    if (chunk.length > 0) {
+                        free.offer(chunk.data);
+                    }
+                }
+            }
+
+            private boolean next() throws IOException {
+                if (failure != null) {
+                    throw new IOException("COPY OUT failed", failure);
+                }
+                if (current == EOF) {
+                    return false;
+                }
+                if (current != null && pos < current.length) {
+                    return true;
+                }
+                if (current != null) {
+                    free.add(current.data);
+                }
+                try {
+                    current = filled.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for pipe data");
+                }
+                pos = 0;
+                if (current.error != null) {
+                    failure = current.error;
+                    current = EOF;
+                    throw new IOException("COPY OUT failed", failure);
+                }
+                return current != EOF;
+            }
+        };
+    }
+
+    /** Makes the reading side fail instead of seeing a clean end of data. */
+    public void fail(Throwable error) {
+        filled.add(new Chunk(null, 0, error));
+    }
+}
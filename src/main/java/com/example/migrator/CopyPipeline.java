@@ -0,0 +1,158 @@
+package com.example.migrator;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs extract, transform and load of successive batches as concurrent stages joined by
+ * bounded queues. The reader stage can run {@code depth} batches ahead of the writer and blocks
+ * once the queue is full, so a slow target throttles extraction instead of filling the heap.
+ * Time each stage spends blocked on its neighbours is exported to show which side is the bottleneck;
+ * queue depths carry the task and partition of the metrics handle the pipeline runs for.
+ */
+public class CopyPipeline {
+    private static final Logger log = LoggerFactory.getLogger(CopyPipeline.class);
+
+    static final Gauge queueDepth = Gauge.build()
+            .name("migrator_pipeline_queue_depth")
+            .help("Batches waiting between pipeline stages")
+            .labelNames("task", "partition", "queue")
+            .register();
+
+    static final Counter waitSeconds = Counter.build()
+            .name("migrator_pipeline_wait_seconds_total")
+            .help("Time pipeline stages spent blocked on a neighbouring stage")
+            .labelNames("stage")
+            .register();
+
+    public record Batch(String lastId, CopyBuffer data) {
+    }
+
+    public interface Reader {
+        /** Returns the next extracted batch, or null when the source is exhausted. */
+        Batch read() throws Exception;
+    }
+
+    public interface Transform {
+        Batch apply(Batch batch) throws Exception;
+    }
+
+    public interface Writer {
+        void write(Batch batch) throws Exception;
+    }
+
+    private static final Batch END = new Batch(null, null);
+
+    private final String name;
+    private final MigrationMetrics metrics;
+    private final int depth;
+    private long readerWaitNanos;
+    private long transformWaitNanos;
+    private long writerWaitNanos;
+    private volatile boolean stopped;
+
+    public CopyPipeline(String name, MigrationMetrics metrics, int depth) {
+        this.name = name;
+        this.metrics = metrics;
+        this.depth = depth;
+    }
+
+    /**
+     * Runs the stages until the reader is exhausted. The writer runs on the calling thread;
+     * a failure in any stage stops the pipeline and is rethrown here.
+     */
+    public void run(Reader reader, Transform transform, Writer writer) throws Exception {
+        BlockingQueue<Batch> extracted = new ArrayBlockingQueue<>(depth);
+        BlockingQueue<Batch> loadable = transform == null ? extracted : new ArrayBlockingQueue<>(depth);
+        ExecutorService stages = Executors.newFixedThreadPool(transform == null ? 1 : 2, r -> {
+            Thread t = new Thread(r, "pipeline-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            Future<?> readerTask = stages.submit(() -> {
+                try {
+                    Batch batch;
+                    while ((batch = reader.read()) != null) {
+                        readerWaitNanos += put(extracted, batch, "extracted");
+                    }
+                } finally {
+                    if (!stopped) {
+                        readerWaitNanos += put(extracted, END, "extracted");
+                    }
+                }
+                return null;
+            });
+            Future<?> transformTask = transform == null ? readerTask : stages.submit(() -> {
+                try {
+                    while (true) {
+                        long waitStart = System.nanoTime();
+                        Batch batch = extracted.take();
+                        transformWaitNanos += System.nanoTime() - waitStart;
+                        queueDepth.labels(metrics.task(), metrics.partition(), "extracted").set(extracted.size());
+                        if (batch == END) {
+                            return null;
+                        }
+                        transformWaitNanos += put(loadable, transform.apply(batch), "transformed");
+                    }
+                } finally {
+                    if (!stopped) {
+                        transformWaitNanos += put(loadable, END, "transformed");
+                    }
+                }
+            });
+
+            String queue = transform == null ? "extracted" : "transformed";
+            while (true) {
+                long waitStart = System.nanoTime();
+                Batch batch = loadable.take();
+                writerWaitNanos += System.nanoTime() - waitStart;
+                queueDepth.labels(metrics.task(), metrics.partition(), queue).set(loadable.size());
+                if (batch == END) {
+                    break;
+                }
+                writer.write(batch);
+            }
+            // the transform first: if it failed, nothing drains the reader's queue and the reader
+            // is only released by the shutdown below
+            await(transformTask);
+            await(readerTask);
+        } finally {
+            // once the writer has stopped nobody drains the queues, so stages must not wait for space
+            stopped = true;
+            stages.shutdownNow();
+            stages.awaitTermination(1, TimeUnit.MINUTES);
+            waitSeconds.labels("reader").inc(readerWaitNanos / 1e9);
+            waitSeconds.labels("transform").inc(transformWaitNanos / 1e9);
+            waitSeconds.labels("writer").inc(writerWaitNanos / 1e9);
+            log.info("Pipeline {} finished: reader waited {} ms for space, transform waited {} ms, writer waited {} ms for data",
+                    name, readerWaitNanos / 1_000_000, transformWaitNanos / 1_000_000, writerWaitNanos / 1_000_000);
+        }
+    }
+
+    private long put(BlockingQueue<Batch> queue, Batch batch, String queueName) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        queue.put(batch);
+        long waited = System.nanoTime() - waitStart;
+        queueDepth.labels(metrics.task(), metrics.partition(), queueName).set(queue.size());
+        return waited;
+    }
+
+    private static void await(Future<?> stage) throws Exception {
+        try {
+            stage.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+}
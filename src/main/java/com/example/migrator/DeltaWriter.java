@@ -0,0 +1,97 @@
+package com.example.migrator;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Applies key-level differences to the target table: re-copies given keys from the source through
+ * a merge staging table, or deletes given keys. Each call is one batch in its own target
+ * transaction; keys that no longer qualify on the source are skipped by the re-copy. Rows move
+ * as {@code sourceColumns} under the same names, see {@link Config#plainColumns}.
+ */
+public class DeltaWriter implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DeltaWriter.class);
+
+    private final Connection dst;
+    private final Config config;
+    private final CopyManager srcCopy;
+    private final CopyManager dstCopy;
+    private final MergeLoader merger;
+    private final MigrationMetrics metrics;
+
+    public DeltaWriter(Connection src, Connection dst, Config config, String worker, MigrationMetrics metrics) throws Exception {
+        this.dst = dst;
+        this.config = config;
+        this.srcCopy = src.unwrap(PGConnection.class).getCopyAPI();
+        this.dstCopy = dst.unwrap(PGConnection.class).getCopyAPI();
+        this.merger = new MergeLoader(dst, config.targetTable(), String.join(", ", config.plainColumns(config.impl())),
+                config.keyColumn(), "update", worker);
+        this.metrics = metrics;
+        merger.prepare();
+    }
+
+    /** Copies the qualifying rows of {@code ids} into the target, inserting or updating; returns rows merged. */
+    public long upsert(List<String> ids) throws Exception {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        var data = new ByteArrayOutputStream();
+        long stageStart = System.nanoTime();
+        srcCopy.copyOut("COPY (SELECT " + config.sourceColumns() + " FROM " + config.sourceTable() + " WHERE " + config.sourceFilter() +
+                " AND " + config.keyColumn() + " IN (" + CopyMigrationService.inList(ids) + ")) TO STDOUT WITH (FORMAT CSV)", data);
+        metrics.time(MigrationMetrics.EXTRACT, stageStart);
+        metrics.bytesOut(data.size());
+        dst.setAutoCommit(false);
+        try {
+            stageStart = System.nanoTime();
+            dstCopy.copyIn("COPY " + merger.copyTarget() + " FROM STDIN WITH (FORMAT CSV)", new ByteArrayInputStream(data.toByteArray()));
+            metrics.time(MigrationMetrics.LOAD, stageStart);
+            metrics.bytesIn(data.size());
+            stageStart = System.nanoTime();
+            int merged = merger.merge();
+            metrics.time(MigrationMetrics.MERGE, stageStart);
+            dst.commit();
+            metrics.rows(merged);
+            log.debug("Upserted {} of {} ids", merged, ids.size());
+            return merged;
+        } catch (Exception e) {
+            metrics.error();
+            dst.rollback();
+            throw e;
+        }
+    }
+
+    /** Deletes {@code ids} from the target; returns rows deleted. */
+    public long delete(List<String> ids) throws Exception {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        dst.setAutoCommit(false);
+        // literals rather than a text[] parameter, so keys of any type match
+        try (Statement delete = dst.createStatement()) {
+            int deleted = delete.executeUpdate("DELETE FROM " + config.targetTable() + " WHERE " + config.keyColumn() + " IN (" +
+                    CopyMigrationService.inList(ids) + ")");
+            dst.commit();
+            log.debug("Removed {} of {} ids", deleted, ids.size());
+            return deleted;
+        } catch (Exception e) {
+            metrics.error();
+            dst.rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        merger.drop();
+    }
+}
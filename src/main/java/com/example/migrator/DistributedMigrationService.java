@@ -0,0 +1,189 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copies a task together with any number of other pods running the same task. The key space
+ * is split once into chunks kept in {@link ChunkQueue}; each worker claims a chunk, copies it
+ * with its own progress row and claims the next, while a heartbeat keeps this pod's leases alive.
+ * A pod leaves once every chunk is done, waiting for chunks held by others in case their owner
+ * dies and they have to be taken over. Every batch checks its chunk's lease inside its own
+ * transaction, so a pod that stalled past its lease cannot commit into a chunk another pod took
+ * over; a pod whose heartbeat finds leases missing stops altogether.
+ */
+public class DistributedMigrationService implements MigrationService {
+    private static final Logger log = LoggerFactory.getLogger(DistributedMigrationService.class);
+
+    private final Config config;
+    private final String owner;
+    private final PartitionPlanner planner;
+    /**
+     * Chunks this pod's workers are running, to compare with what a lease renewal finds. Claims,
+     * hand-backs and renewals hold {@code leases} so the count matches the table when compared.
+     */
+    private final AtomicInteger held = new AtomicInteger();
+    private final Object leases = new Object();
+    private volatile String stopReason;
+
+    public DistributedMigrationService(Config config) {
+        this.config = config;
+        this.planner = PartitionPlanner.from(config);
+        String host = System.getenv("HOSTNAME");
+        this.owner = (host != null ? host : "migrator") + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    @Override
+    public void run() throws Exception {
+        log.info("Starting distributed migration task {} as {} with {} workers", config.taskName(), owner, config.parallelism());
+        long start = System.nanoTime();
+        long estimatedPerChunk;
+        try (Connection src = DriverManager.getConnection(config.sourceUrl(), config.sourceUser(), config.sourcePassword());
+             Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+            ChunkQueue queue = queue(dst);
+            // CREATE TABLE IF NOT EXISTS is not safe against pods starting together
+            try (Statement lock = dst.createStatement()) {
+                lock.execute("SELECT pg_advisory_lock(hashtext('migration_chunks'))");
+                try {
+                    new ProgressStore(dst).ensureTable();
+                    queue.ensureTable();
+                } finally {
+                    lock.execute("SELECT pg_advisory_unlock(hashtext('migration_chunks'))");
+                }
+            }
+            int chunks = queue.planIfEmpty(() -> planner.plan(src, config.chunks()).partitions());
+            long estimated = planner.estimateRows(src);
+            estimatedPerChunk = estimated > 0 ? estimated / chunks : -1;
+        }
+
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lease-" + owner);
+            t.setDaemon(true);
+            return t;
+        });
+        ExecutorService workers = Executors.newFixedThreadPool(config.parallelism());
+        try (Throttle throttle = new Throttle(config);
+             Connection leaseConnection = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+            ChunkQueue renewals = queue(leaseConnection);
+            long period = Math.max(1, config.leaseSeconds() / 3);
+            heartbeat.scheduleAtFixedRate(() -> {
+                try {
+                    int holding;
+                    int renewed;
+                    synchronized (leases) {
+                        holding = held.get();
+                        renewed = renewals.renew(owner);
+                    }
+                    if (renewed < holding && stopReason == null) {
+                        stopReason = "Renewed " + renewed + " of the " + holding + " chunk leases of " + owner +
+                                "; the others were taken over";
+                        log.error("{}, stopping", stopReason);
+                    }
+                } catch (Exception e) {
+                    log.warn("Failed to renew chunk leases of {}", owner, e);
+                }
+            }, period, period, TimeUnit.SECONDS);
+
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < config.parallelism(); i++) {
+                results.add(workers.submit(() -> work(throttle, estimatedPerChunk, start)));
+            }
+            long processed = 0;
+            Exception failure = null;
+            for (Future<Long> result : results) {
+                try {
+                    processed += result.get();
+                } catch (ExecutionException e) {
+                    log.error("Worker failed", e.getCause());
+                    if (failure == null) {
+                        failure = e.getCause() instanceof Exception cause ? cause : e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            log.info("Distributed migration finished. {} processed {} ids", owner, processed);
+        } finally {
+            workers.shutdownNow();
+            heartbeat.shutdownNow();
+        }
+    }
+
+    private ChunkQueue queue(Connection dst) {
+        return new ChunkQueue(dst, config.taskName(), config.leaseSeconds());
+    }
+
+    /** Claims and copies chunks until none is left to claim and none is running elsewhere. */
+    private long work(Throttle throttle, long estimated, long start) throws Exception {
+        long processed = 0;
+        try (Connection control = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+            ChunkQueue queue = queue(control);
+            while (true) {
+                if (stopReason != null) {
+                    throw new ChunkQueue.LeaseLostException(stopReason);
+                }
+                Partition chunk;
+                synchronized (leases) {
+                    chunk = queue.claim(owner);
+                    if (chunk != null) {
+                        held.incrementAndGet();
+                    }
+                }
+                if (chunk == null) {
+                    int remaining = queue.remaining();
+                    if (remaining == 0) {
+                        return processed;
+                    }
+                    log.debug("{} chunks are running on other workers, waiting in case one is abandoned", remaining);
+                    Thread.sleep(Math.max(1000, config.leaseSeconds() * 250L));
+                    continue;
+                }
+                CopyMigrationService.Fence fence = batch -> {
+                    if (stopReason != null) {
+                        throw new ChunkQueue.LeaseLostException(stopReason);
+                    }
+                    queue.checkLease(batch, chunk, owner);
+                };
+                try (Connection src = DriverManager.getConnection(config.sourceUrl(), config.sourceUser(), config.sourcePassword());
+                     Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+                    processed += new CopyMigrationService(config, throttle, fence).migratePartition(src, dst, chunk, estimated, start);
+                } catch (ChunkQueue.LeaseLostException e) {
+                    synchronized (leases) {
+                        held.decrementAndGet();
+                    }
+                    if (stopReason != null) {
+                        throw e;
+                    }
+                    // its new owner resumes from the last batch this pod committed
+                    log.warn("Giving up chunk {}: {}", chunk.number(), e.getMessage());
+                    continue;
+                } catch (Exception e) {
+                    synchronized (leases) {
+                        held.decrementAndGet();
+                        queue.release(chunk, owner);
+                    }
+                    throw e;
+                }
+                synchronized (leases) {
+                    held.decrementAndGet();
+                    queue.complete(chunk, owner);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.migrator;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Ordered ids held in memory. When every id is a plain decimal number the ids are kept in a
+ * {@code long[]}, 8 bytes each instead of a String object per id; other ids stay strings.
+ * {@link #indexOf} and {@link #contains} use a hash index of positions, built on first use,
+ * so resuming from the last copied id or skipping ids already seen does not scan the list.
+ */
+public class IdSet extends AbstractList<String> implements RandomAccess {
+    private final long[] numbers;
+    private final List<String> strings;
+    private final int size;
+    private int[] index;
+
+    private IdSet(long[] numbers, List<String> strings, int size) {
+        this.numbers = numbers;
+        this.strings = strings;
+        this.size = size;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static IdSet copyOf(Iterable<String> ids) {
+        Builder builder = builder();
+        ids.forEach(builder::add);
+        return builder.build();
+    }
+
+    public static class Builder {
+        private long[] numbers = new long[1024];
+        private List<String> strings;
+        private int size;
+
+        public Builder add(String id) {
+            if (strings == null) {
+                long value = parseCanonical(id);
+                if (value != Long.MIN_VALUE || id.equals(Long.toString(Long.MIN_VALUE))) {
+                    if (size == numbers.length) {
+                        numbers = Arrays.copyOf(numbers, size + (size >> 1));
+                    }
+                    numbers[size++] = value;
+                    return this;
+                }
+                // not a number: keep everything as strings from here on
+                strings = new ArrayList<>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    strings.add(Long.toString(numbers[i]));
+                }
+                numbers = null;
+            }
+            strings.add(id);
+            size++;
+            return this;
+        }
+
+        public IdSet build() {
+            return strings == null
+                    ? new IdSet(Arrays.copyOf(numbers, size), null, size)
+                    : new IdSet(null, strings, size);
+        }
+    }
+
+    /** True when the ids are stored as numbers. */
+    public boolean isNumeric() {
+        return numbers != null;
+    }
+
+    @Override
+    public String get(int i) {
+        if (numbers == null) {
+            return strings.get(i);
+        }
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException(i);
+        }
+        return Long.toString(numbers[i]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof String id) || size == 0) {
+            return -1;
+        }
+        long number = 0;
+        if (numbers != null) {
+            number = parseCanonical(id);
+            if (number == Long.MIN_VALUE && !id.equals(Long.toString(Long.MIN_VALUE))) {
+                return -1;
+            }
+        }
+        int[] slots = index();
+        int mask = slots.length - 1;
+        for (int slot = (numbers != null ? hash(number) : hash(id.hashCode())) & mask; ; slot = (slot + 1) & mask) {
+            int position = slots[slot] - 1;
+            if (position < 0) {
+                return -1;
+            }
+            if (numbers != null ? numbers[position] == number : strings.get(position).equals(id)) {
+                return position;
+            }
+        }
+    }
+
+    /** Open addressing table of positions + 1, at most half full; the first position wins for duplicates. */
+    private int[] index() {
+        if (index == null) {
+            int[] slots = new int[Integer.highestOneBit(Math.max(1, size) * 2) * 2];
+            int mask = slots.length - 1;
+            for (int i = 0; i < size; i++) {
+                int slot = (numbers != null ? hash(numbers[i]) : hash(strings.get(i).hashCode())) & mask;
+                boolean duplicate = false;
+                while (slots[slot] != 0 && !duplicate) {
+                    int other = slots[slot] - 1;
+                    duplicate = numbers != null ? numbers[other] == numbers[i] : strings.get(other).equals(strings.get(i));
+                    slot = (slot + 1) & mask;
+                }
+                if (!duplicate) {
+                    slots[slot] = i + 1;
+                }
+            }
+            index = slots;
+        }
+        return index;
+    }
+
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Returns the value of an id written exactly as {@link Long#toString} would write it, so it
+     * converts back unchanged, or {@link Long#MIN_VALUE} for anything else ("007", "+1", "1e3").
+     */
+    static long parseCanonical(String id) {
+        int length = id.length();
+        int start = length > 0 && id.charAt(0) == '-' ? 1 : 0;
+        if (length == start || length - start > 19 || (id.charAt(start) == '0' && length - start > 1)
+                || (start == 1 && id.charAt(1) == '0')) {
+            return Long.MIN_VALUE;
+        }
+        // accumulate negatively so Long.MIN_VALUE itself parses
+        long limit = start == 1 ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long value = 0;
+        for (int i = start; i < length; i++) {
+            int digit = id.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || value < limit / 10 || value * 10 < limit + digit) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 - digit;
+        }
+        return start == 1 ? value : -value;
+    }
+}
@@ -0,0 +1,288 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only list view of an ids file, one id per line, backed by a memory mapping of the file
+ * instead of a copy of every id on the heap. Blank lines are skipped. Only the byte offset of
+ * every {@value #BLOCK}th id is kept, so {@link #get} scans at most one block, iteration walks
+ * the file sequentially, and when the file is sorted {@link #indexOf} binary searches the blocks.
+ */
+public class IdsFile extends AbstractList<String> {
+    private static final Logger log = LoggerFactory.getLogger(IdsFile.class);
+
+    static final int BLOCK = 64;
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+    private final MappedByteBuffer[] segments;
+    private final long length;
+    private final long[] blockStarts;
+    private final int size;
+    private final boolean sorted;
+
+    private IdsFile(MappedByteBuffer[] segments, long length) {
+        this.segments = segments;
+        this.length = length;
+        long[] starts = new long[16];
+        int count = 0;
+        boolean ordered = true;
+        long prevStart = -1;
+        long prevEnd = -1;
+        long pos = 0;
+        while ((pos = skipBlank(pos)) < length) {
+            long end = lineEnd(pos);
+            if (count % BLOCK == 0) {
+                if (count / BLOCK == starts.length) {
+                    starts = Arrays.copyOf(starts, starts.length * 2);
+                }
+                starts[count / BLOCK] = pos;
+            }
+            if (prevStart >= 0 && ordered && compare(prevStart, contentEnd(prevStart, prevEnd), pos, contentEnd(pos, end)) > 0) {
+                ordered = false;
+            }
+            if (++count < 0) {
+                throw new IllegalArgumentException("Ids file has more than " + Integer.MAX_VALUE + " ids");
+            }
+            prevStart = pos;
+            prevEnd = end;
+            pos = end + 1;
+        }
+        this.blockStarts = Arrays.copyOf(starts, (count + BLOCK - 1) / BLOCK);
+        this.size = count;
+        this.sorted = ordered;
+    }
+
+    public static IdsFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+            for (int i = 0; i < segments.length; i++) {
+                long offset = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(SEGMENT_SIZE, length - offset));
+            }
+            IdsFile ids = new IdsFile(segments, length);
+            log.info("Indexed {} ids in {} ({} bytes, {})", ids.size, file, length, ids.sorted ? "sorted" : "not sorted");
+            return ids;
+        }
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        long pos = startOf(index);
+        return decode(pos, contentEnd(pos, lineEnd(pos)));
+    }
+
+    /** Binary search when the file is sorted, otherwise a sequential scan of the mapping. */
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof String id)) {
+            return -1;
+        }
+        if (!sorted) {
+            return super.indexOf(o);
+        }
+        byte[] key = id.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = blockStarts.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compareLine(blockStarts[mid], key) <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return -1;
+        }
+        long pos = blockStarts[block];
+        for (int index = block * BLOCK; index < Math.min(size, (block + 1) * BLOCK); index++) {
+            int cmp = compareLine(pos, key);
+            if (cmp == 0) {
+                return index;
+            }
+            if (cmp > 0) {
+                break;
+            }
+            pos = skipBlank(lineEnd(pos) + 1);
+        }
+        return -1;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return listIterator(0);
+    }
+
+    /** Walks the mapping line by line; sublists and resumed iteration go through here too. */
+    @Override
+    public ListIterator<String> listIterator(int index) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return new ListIterator<>() {
+            private int next = index;
+            private long pos = index == size ? length : startOf(index);
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public String next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                long end = lineEnd(pos);
+                String id = decode(pos, contentEnd(pos, end));
+                pos = skipBlank(end + 1);
+                next++;
+                return id;
+            }
+
+            @Override
+            public boolean hasPrevious() {
+                return next > 0;
+            }
+
+            @Override
+            public String previous() {
+                if (next <= 0) {
+                    throw new NoSuchElementException();
+                }
+                next--;
+                pos = startOf(next);
+                return get(next);
+            }
+
+            @Override
+            public int nextIndex() {
+                return next;
+            }
+
+            @Override
+            public int previousIndex() {
+                return next - 1;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void set(String s) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void add(String s) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private long startOf(int index) {
+        long pos = blockStarts[index / BLOCK];
+        for (int i = index % BLOCK; i > 0; i--) {
+            pos = skipBlank(lineEnd(pos) + 1);
+        }
+        return pos;
+    }
+
+    private byte byteAt(long pos) {
+        return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & (SEGMENT_SIZE - 1)));
+    }
+
+    /** Position of the newline ending the line at {@code pos}, or the file length. */
+    private long lineEnd(long pos) {
+        while (pos < length && byteAt(pos) != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /** Drops the carriage return of CRLF line endings. */
+    private long contentEnd(long start, long end) {
+        return end > start && byteAt(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    /** Returns the start of the first non-blank line at or after {@code pos}. */
+    private long skipBlank(long pos) {
+        while (pos < length) {
+            long end = lineEnd(pos);
+            for (long p = pos; p < end; p++) {
+                if (!Character.isWhitespace(byteAt(p))) {
+                    return pos;
+                }
+            }
+            pos = end + 1;
+        }
+        return length;
+    }
+
+    private String decode(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        int segment = (int) (start >>> SEGMENT_BITS);
+        if (segment == (int) ((end - 1) >>> SEGMENT_BITS)) {
+            segments[segment].get((int) (start & (SEGMENT_SIZE - 1)), bytes);
+        } else {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = byteAt(start + i);
+            }
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int compare(long aStart, long aEnd, long bStart, long bEnd) {
+        long n = Math.min(aEnd - aStart, bEnd - bStart);
+        for (long i = 0; i < n; i++) {
+            int cmp = Byte.compareUnsigned(byteAt(aStart + i), byteAt(bStart + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Long.compare(aEnd - aStart, bEnd - bStart);
+    }
+
+    private int compareLine(long start, byte[] key) {
+        long end = contentEnd(start, lineEnd(start));
+        long n = Math.min(end - start, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Byte.compareUnsigned(byteAt(start + i), key[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Long.compare(end - start, key.length);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Brings an already migrated {@code targetTable} up to date with the source. The qualifying
+ * source keys and the target keys are read as two key-ordered streams and merge-joined, so neither
+ * side is held in memory: ids only in the source are inserted, ids only in the target (people who
+ * aged out or were deleted) are removed, and ids on both sides are re-copied only when the source
+ * row changed since the last run's watermark. The watermark is the source's oldest running
+ * transaction id when the run started, or the maximum of {@code syncWatermarkColumn} if one is set.
+ * Transaction ids are kept as 64-bit txids, with the epoch, while a row's {@code xmin} is only the
+ * low 32 bits; rows are compared to the watermark modulo 2^32, which holds as long as fewer than
+ * 2^31 transactions ran since the last sync. Keys are compared as text in {@code COLLATE "C"}
+ * order, and rows move as {@code sourceColumns}, see {@link Config#plainColumns}.
+ */
+public class IncrementalSyncService implements MigrationService {
+    private static final Logger log = LoggerFactory.getLogger(IncrementalSyncService.class);
+
+    private static final int FETCH_SIZE = 10_000;
+    private static final long XID_HALF_RANGE = 1L << 31;
+
+    private final Config config;
+    private final String watermarkKey;
+
+    public IncrementalSyncService(Config config) {
+        this.config = config;
+        this.watermarkKey = config.taskName() + "@watermark";
+        config.plainColumns("sync");
+    }
+
+    @Override
+    public void run() throws Exception {
+        log.info("Starting incremental sync task {}", config.taskName());
+        long start = System.nanoTime();
+        MigrationMetrics metrics = MigrationMetrics.forTask(config.taskName());
+        try (Connection srcScan = DriverManager.getConnection(config.sourceUrl(), config.sourceUser(), config.sourcePassword());
+             Connection srcCopy = DriverManager.getConnection(config.sourceUrl(), config.sourceUser(), config.sourcePassword());
+             Connection dstScan = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword());
+             Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword());
+             ProgressStore progress = new ProgressStore(dst)) {
+
+            progress.ensureTable();
+            String watermark = progress.load(watermarkKey);
+            srcScan.setAutoCommit(false);
+            srcScan.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            String nextWatermark = nextWatermark(srcScan);
+            if (watermark != null && isXmin() && !xminComparable(Long.parseLong(watermark), Long.parseLong(nextWatermark))) {
+                log.warn("Too many transactions since watermark {} to compare row xmins with it, re-copying every row", watermark);
+                watermark = null;
+            }
+            log.info("Copying rows changed since {}", watermark == null ? "the beginning" : watermark);
+
+            DeltaWriter writer = new DeltaWriter(srcCopy, dst, config, config.taskName() + "_sync", metrics);
+            dstScan.setAutoCommit(false);
+
+            List<String> upserts = new ArrayList<>();
+            List<String> deletes = new ArrayList<>();
+            long upserted = 0;
+            long deleted = 0;
+            String key = config.keyColumn() + "::text";
+            try (PreparedStatement sourceIds = srcScan.prepareStatement("SELECT " + key + ", " + changedExpression(watermark) +
+                         " FROM " + config.sourceTable() + " WHERE " + config.sourceFilter() + " ORDER BY " + key + " COLLATE \"C\"");
+                 Statement targetIds = dstScan.createStatement()) {
+                sourceIds.setFetchSize(FETCH_SIZE);
+                if (watermark != null && isXmin()) {
+                    sourceIds.setLong(1, Long.parseLong(watermark) & 0xffffffffL);
+                } else if (watermark != null) {
+                    sourceIds.setObject(1, watermark, Types.OTHER);
+                }
+                targetIds.setFetchSize(FETCH_SIZE);
+                try (ResultSet source = sourceIds.executeQuery();
+                     ResultSet target = targetIds.executeQuery("SELECT " + key + " FROM " + config.targetTable() +
+                             " ORDER BY " + key + " COLLATE \"C\"")) {
+                    String s = source.next() ? source.getString(1) : null;
+                    String t = target.next() ? target.getString(1) : null;
+                    while (s != null || t != null) {
+                        int cmp = s == null ? 1 : t == null ? -1 : compareC(s, t);
+                        if (cmp < 0 || (cmp == 0 && source.getBoolean(2))) {
+                            upserts.add(s);
+                        } else if (cmp > 0) {
+                            deletes.add(t);
+                        }
+                        if (cmp <= 0) {
+                            s = source.next() ? source.getString(1) : null;
+                        }
+                        if (cmp >= 0) {
+                            t = target.next() ? target.getString(1) : null;
+                        }
+                        if (upserts.size() >= config.batchSize()) {
+                            upserted += writer.upsert(upserts);
+                            upserts.clear();
+                        }
+                        if (deletes.size() >= config.batchSize()) {
+                            deleted += writer.delete(deletes);
+                            deletes.clear();
+                        }
+                    }
+                }
+            }
+            upserted += writer.upsert(upserts);
+            deleted += writer.delete(deletes);
+            srcScan.commit();
+            dstScan.commit();
+            writer.close();
+            progress.save(watermarkKey, nextWatermark);
+            log.info("Sync finished in {} s: {} rows inserted or updated, {} rows removed, next watermark {}",
+                    (System.nanoTime() - start) / 1_000_000_000, upserted, deleted, nextWatermark);
+        }
+    }
+
+    private boolean isXmin() {
+        return config.syncWatermarkColumn() == null || config.syncWatermarkColumn().isBlank();
+    }
+
+    /** Read inside the scan's snapshot, so changes it cannot see are picked up by the next run. */
+    private String nextWatermark(Connection src) throws Exception {
+        String sql = isXmin()
+                ? "SELECT txid_snapshot_xmin(txid_current_snapshot())"
+                : "SELECT max(" + config.syncWatermarkColumn() + ")::text FROM " + config.sourceTable();
+        try (Statement st = src.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    private String changedExpression(String watermark) {
+        if (watermark == null) {
+            return "true";
+        }
+        return isXmin() ? XMIN_CHANGED : config.syncWatermarkColumn() + " >= ?";
+    }
+
+    /**
+     * Whether the row's xmin is at or after the watermark's low 32 bits, bound as the parameter,
+     * in modulo-2^32 order: ids less than 2^31 ahead of the watermark count as newer, also across
+     * a wraparound.
+     */
+    static final String XMIN_CHANGED = "((xmin::text::bigint - ?) % 4294967296 + 4294967296) % 4294967296 < " + XID_HALF_RANGE;
+
+    /**
+     * Whether xmins can still be ordered against {@code watermark}: modulo 2^32 that only works
+     * for ids less than 2^31 apart, so after more transactions than that every row is re-copied.
+     * A watermark from before txids carried their epoch fails this once.
+     */
+    static boolean xminComparable(long watermark, long next) {
+        return next >= watermark && next - watermark < XID_HALF_RANGE;
+    }
+
+    /** Orders strings like {@code COLLATE "C"}: by their UTF-8 bytes. */
+    static int compareC(String a, String b) {
+        byte[] x = a.getBytes(StandardCharsets.UTF_8);
+        byte[] y = b.getBytes(StandardCharsets.UTF_8);
+        return Arrays.compareUnsigned(x, y);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+/**
+ * Loads batches idempotently: rows are COPYed into an UNLOGGED staging table owned by one worker
+ * and then moved into the target with a single {@code INSERT ... ON CONFLICT}, so rows that are
+ * already present are updated or skipped instead of failing the batch.
+ */
+public class MergeLoader {
+    private static final Logger log = LoggerFactory.getLogger(MergeLoader.class);
+
+    private final Connection dst;
+    private final String targetTable;
+    private final String columns;
+    private final String stageTable;
+    private final String mergeSql;
+
+    public MergeLoader(Connection dst, String targetTable, String columns, String keyColumn, String action, String worker) {
+        this.dst = dst;
+        this.targetTable = targetTable;
+        this.columns = columns;
+        this.stageTable = stageTableName(targetTable, worker);
+        this.mergeSql = "INSERT INTO " + targetTable + " (" + columns + ") SELECT " + columns + " FROM " + stageTable +
+                " ON CONFLICT (" + keyColumn + ") " + conflictAction(targetTable, columns, keyColumn, action);
+    }
+
+    /**
+     * A readable prefix of the table and worker plus a hash of the untouched name, so workers
+     * whose names only differ in characters that get replaced, or past the 63 characters
+     * Postgres keeps, still get tables of their own.
+     */
+    static String stageTableName(String targetTable, String worker) {
+        String full = targetTable + "_stage_" + worker;
+        CRC32C crc = new CRC32C();
+        crc.update(full.getBytes(StandardCharsets.UTF_8));
+        String prefix = full.toLowerCase().replaceAll("[^a-z0-9_]", "_");
+        return prefix.substring(0, Math.min(prefix.length(), 54)) + "_" + String.format("%08x", crc.getValue());
+    }
+
+    static String conflictAction(String targetTable, String columns, String keyColumn, String action) {
+        if ("nothing".equals(action)) {
+            return "DO NOTHING";
+        }
+        String[] updated = Arrays.stream(columns.split(","))
+                .map(String::trim)
+                .filter(c -> !c.equals(keyColumn))
+                .toArray(String[]::new);
+        if (updated.length == 0) {
+            return "DO NOTHING";
+        }
+        String set = Arrays.stream(updated).map(c -> c + " = EXCLUDED." + c).collect(Collectors.joining(", "));
+        String current = Arrays.stream(updated).map(c -> targetTable + "." + c).collect(Collectors.joining(", "));
+        String incoming = Arrays.stream(updated).map(c -> "EXCLUDED." + c).collect(Collectors.joining(", "));
+        // rows that did not change are left alone so reruns do not rewrite them
+        return "DO UPDATE SET " + set + " WHERE (" + current + ") IS DISTINCT FROM (" + incoming + ")";
+    }
+
+    public void prepare() throws Exception {
+        log.info("Merging into {} through staging table {}", targetTable, stageTable);
+        dst.setAutoCommit(true);
+        try (Statement st = dst.createStatement()) {
+            st.executeUpdate("CREATE UNLOGGED TABLE IF NOT EXISTS " + stageTable + " (LIKE " + targetTable + " INCLUDING DEFAULTS)");
+            st.executeUpdate("TRUNCATE " + stageTable);
+        }
+    }
+
+    /** The table batches are COPYed into. */
+    public String copyTarget() {
+        return stageTable + " (" + columns + ")";
+    }
+
+    /**
+     * Moves the staged batch into the target table and empties the staging table, inside the
+     * caller's transaction. Returns the number of rows inserted or updated.
+     */
+    public int merge() throws Exception {
+        try (Statement st = dst.createStatement()) {
+            int merged = st.executeUpdate(mergeSql);
+            // TRUNCATE in every batch would take an ACCESS EXCLUSIVE lock and a new relfilenode each time
+            st.executeUpdate("DELETE FROM " + stageTable);
+            return merged;
+        }
+    }
+
+    public void drop() throws SQLException {
+        dst.setAutoCommit(true);
+        try (Statement st = dst.createStatement()) {
+            st.executeUpdate("DROP TABLE IF EXISTS " + stageTable);
+        }
+    }
+}
@@ -23,8 +23,22 @@ public class MigrationApp implements CommandLineRunner {
 
     @Bean
     MigrationService migrationService(Config config) {
+        if (config.bulkLoad()) {
+            return new BulkLoadMigrationService(config, MigrationApp::create);
+        }
+        return create(config);
+    }
+
+    static MigrationService create(Config config) {
         return switch (config.impl()) {
             case "simple" -> new SimpleMigrationService(config);
+            case "parallel" -> new ParallelMigrationService(config);
+            case "distributed" -> new DistributedMigrationService(config);
+            case "sync" -> new IncrementalSyncService(config);
+            case "verify" -> new VerifyMigrationService(config);
+            case "tables" -> new MultiTableMigrationService(config);
+            case "extract" -> new ChunkExtractService(config);
+            case "load" -> new ChunkLoadService(config);
             default -> new CopyMigrationService(config);
         };
     }
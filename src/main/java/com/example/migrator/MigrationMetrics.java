@@ -0,0 +1,163 @@
+package com.example.migrator;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Prometheus collectors shared by every migration service, plus a per-task handle that
+ * labels batch timings, bytes and throughput with the task and partition it is recording for.
+ * {@code migrator_speed} is the average since the task started; {@code migrator_rows_per_second}
+ * only covers the last {@value #WINDOW_SECONDS} seconds and is worked out when it is scraped,
+ * so it drops while a stall is going on instead of showing the rate of the last finished batch.
+ */
+public class MigrationMetrics {
+    public static final String EXTRACT = "extract";
+    public static final String TRANSFORM = "transform";
+    public static final String LOAD = "load";
+    public static final String MERGE = "merge";
+    public static final String CHECKPOINT = "checkpoint";
+    public static final String COMMIT = "commit";
+
+    static final int WINDOW_SECONDS = 60;
+
+    static final Counter processedCounter = Counter.build()
+            .name("migrator_processed_total")
+            .help("Total processed records")
+            .register();
+
+    static final Counter errorCounter = Counter.build()
+            .name("migrator_errors_total")
+            .help("Total errors during migration")
+            .register();
+
+    static final Counter deadLetterCounter = Counter.build()
+            .name("migrator_dead_letter_rows_total")
+            .help("Rows the target rejected and that were set aside in migration_dead_letter")
+            .labelNames("task")
+            .register();
+
+    static final Gauge speedGauge = Gauge.build()
+            .name("migrator_speed")
+            .help("Average records per second")
+            .labelNames("task", "partition")
+            .register();
+
+    static final Histogram stageSeconds = Histogram.build()
+            .name("migrator_batch_stage_seconds")
+            .help("Time one batch spent in each stage")
+            .labelNames("task", "partition", "stage")
+            .buckets(0.001, 0.005, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60)
+            .register();
+
+    static final Counter bytesCounter = Counter.build()
+            .name("migrator_bytes_total")
+            .help("COPY data read from the source (out) and written to the target (in)")
+            .labelNames("task", "partition", "direction")
+            .register();
+
+    static final Gauge rowsPerSecond = Gauge.build()
+            .name("migrator_rows_per_second")
+            .help("Records per second over the last minute")
+            .labelNames("task", "partition")
+            .register();
+
+    private final String task;
+    private final String partition;
+    /** (nanoTime, rows so far) samples inside the window, oldest first. */
+    private final Deque<long[]> window = new ArrayDeque<>();
+    private long rows;
+    private final LongAdder extracted = new LongAdder();
+
+    public MigrationMetrics(String task, String partition) {
+        this.task = task;
+        this.partition = partition;
+        window.addLast(new long[]{System.nanoTime(), 0});
+        rowsPerSecond.setChild(new Gauge.Child() {
+            @Override
+            public double get() {
+                return rate(System.nanoTime());
+            }
+        }, task, partition);
+    }
+
+    public static MigrationMetrics forTask(String task) {
+        return new MigrationMetrics(task, "");
+    }
+
+    public String task() {
+        return task;
+    }
+
+    public String partition() {
+        return partition;
+    }
+
+    /** Records the time since {@code startNanos} against a batch stage. */
+    public void time(String stage, long startNanos) {
+        stageSeconds.labels(task, partition, stage).observe((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    public void bytesOut(long bytes) {
+        bytesCounter.labels(task, partition, "out").inc(bytes);
+        extracted.add(bytes);
+    }
+
+    /** Bytes read from the source through this instance so far. */
+    public long bytesOut() {
+        return extracted.sum();
+    }
+
+    public void bytesIn(long bytes) {
+        bytesCounter.labels(task, partition, "in").inc(bytes);
+    }
+
+    /** Sets the average rows per second since the task or partition started. */
+    public void speed(double rowsPerSecond) {
+        speedGauge.labels(task, partition).set(rowsPerSecond);
+    }
+
+    public void error() {
+        errorCounter.inc();
+    }
+
+    public void deadLetter() {
+        deadLetterCounter.labels(task).inc();
+    }
+
+    /** Counts a finished batch and returns the rows per second over the window. */
+    public synchronized double rows(long count) {
+        processedCounter.inc(count);
+        rows += count;
+        long now = System.nanoTime();
+        window.addLast(new long[]{now, rows});
+        return rate(now);
+    }
+
+    /**
+     * Rows per second finished within the window ending at {@code now}. The oldest sample kept
+     * is the last one before the window, the baseline the rows in the window are counted from.
+     */
+    synchronized double rate(long now) {
+        long windowStart = now - WINDOW_SECONDS * 1_000_000_000L;
+        while (window.size() > 1) {
+            long[] oldest = window.pollFirst();
+            if (window.peekFirst()[0] > windowStart) {
+                window.addFirst(oldest);
+                break;
+            }
+        }
+        long[] baseline = window.peekFirst();
+        long span = now - Math.max(baseline[0], windowStart);
+        return span <= 0 ? 0 : (rows - baseline[1]) * 1e9 / span;
+    }
+
+    /** Total rows counted by all tasks since the process started. */
+    public static long totalProcessed() {
+        return (long) processedCounter.get();
+    }
+}
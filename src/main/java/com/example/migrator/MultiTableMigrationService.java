@@ -0,0 +1,180 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Copies every table job listed in {@code migration.tables}. Foreign keys between the target
+ * tables, read from the target catalog, order the jobs: a table starts once all the tables it
+ * references are loaded, and tables without such a path between them run at the same time.
+ * A running table holds a source and a target connection, so at most {@code connectionBudget / 2}
+ * tables run at once. Each table copies with keyset extraction under its own progress entry,
+ * {@code <taskName>:<table>}, so a rerun resumes every table where it stopped. A target table
+ * that references itself is refused, since its rows are loaded in key order rather than parents
+ * first, and so are two jobs loading the same target table.
+ */
+public class MultiTableMigrationService implements MigrationService {
+    private static final Logger log = LoggerFactory.getLogger(MultiTableMigrationService.class);
+
+    private static final int CONNECTIONS_PER_TABLE = 2;
+
+    private final Config config;
+
+    public MultiTableMigrationService(Config config) {
+        this.config = config;
+    }
+
+    @Override
+    public void run() throws Exception {
+        List<TableJob> jobs = config.tables();
+        if (jobs.isEmpty()) {
+            throw new IllegalArgumentException("impl=tables needs the table jobs listed in migration.tables");
+        }
+        Map<String, Set<String>> dependsOn;
+        try (Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+            dependsOn = dependencies(dst, jobs);
+            // once up front, as concurrent CREATE TABLE IF NOT EXISTS can collide
+            new ProgressStore(dst).ensureTable();
+        }
+        log.info("Load order of task {}: {}", config.taskName(), order(dependsOn));
+
+        int slots = Math.max(1, config.connectionBudget() / CONNECTIONS_PER_TABLE);
+        log.info("Copying {} tables, at most {} at a time", jobs.size(), slots);
+        Map<String, TableJob> pending = new LinkedHashMap<>();
+        jobs.forEach(job -> pending.put(job.name(), job));
+        ExecutorService workers = Executors.newFixedThreadPool(slots);
+        CompletionService<String> done = new ExecutorCompletionService<>(workers);
+        try (Throttle throttle = new Throttle(config)) {
+            int running = submitReady(pending, dependsOn, done, throttle);
+            Exception failure = null;
+            while (running > 0) {
+                Future<String> finished = done.take();
+                running--;
+                try {
+                    String table = finished.get();
+                    dependsOn.values().forEach(parents -> parents.remove(table));
+                    log.info("Table {} finished, {} left", table, pending.size() + running);
+                } catch (ExecutionException e) {
+                    log.error("Table failed", e.getCause());
+                    if (failure == null) {
+                        failure = e.getCause() instanceof Exception cause ? cause : e;
+                    }
+                }
+                if (failure == null) {
+                    running += submitReady(pending, dependsOn, done, throttle);
+                }
+            }
+            if (failure != null) {
+                log.error("Stopped with {} tables not started: {}", pending.size(), pending.keySet());
+                throw failure;
+            }
+            log.info("Multi-table migration finished. {} tables copied", jobs.size());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /** Starts every pending table whose referenced tables are all loaded; returns how many started. */
+    private int submitReady(Map<String, TableJob> pending, Map<String, Set<String>> dependsOn, CompletionService<String> done,
+                            Throttle throttle) {
+        List<TableJob> ready = new ArrayList<>();
+        for (TableJob job : pending.values()) {
+            if (dependsOn.get(job.name()).isEmpty()) {
+                ready.add(job);
+            }
+        }
+        for (TableJob job : ready) {
+            pending.remove(job.name());
+            done.submit(() -> {
+                log.info("Starting table {}: {} -> {}", job.name(), job.sourceTable(), job.targetTable());
+                new CopyMigrationService(config.forTable(job), throttle).run();
+                return job.name();
+            });
+        }
+        return ready.size();
+    }
+
+    /**
+     * For each job, the other jobs whose target tables its target table references. Fails when
+     * two jobs share a target table or a target table has a foreign key to itself.
+     */
+    static Map<String, Set<String>> dependencies(Connection dst, List<TableJob> jobs) throws Exception {
+        Map<Long, String> jobByTable = new HashMap<>();
+        try (PreparedStatement ps = dst.prepareStatement("SELECT to_regclass(?)::oid")) {
+            for (TableJob job : jobs) {
+                ps.setString(1, job.targetTable());
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    long oid = rs.getLong(1);
+                    if (rs.wasNull()) {
+                        throw new IllegalArgumentException("Target table " + job.targetTable() + " of " + job.name() + " does not exist");
+                    }
+                    String other = jobByTable.put(oid, job.name());
+                    if (other != null) {
+                        throw new IllegalArgumentException("Jobs " + other + " and " + job.name() + " both load target table " +
+                                job.targetTable() + "; list each target table once");
+                    }
+                }
+            }
+        }
+        Map<String, Set<String>> dependsOn = new LinkedHashMap<>();
+        jobs.forEach(job -> dependsOn.put(job.name(), new LinkedHashSet<>()));
+        try (Statement st = dst.createStatement();
+             ResultSet rs = st.executeQuery("SELECT conrelid::oid, confrelid::oid, conname FROM pg_constraint WHERE contype = 'f'")) {
+            while (rs.next()) {
+                String child = jobByTable.get(rs.getLong(1));
+                String parent = jobByTable.get(rs.getLong(2));
+                if (child != null && child.equals(parent)) {
+                    throw new IllegalStateException("Target table of " + child + " references itself through foreign key " +
+                            rs.getString(3) + ", which rows copied in key order can violate; drop it for the load and add it back after");
+                }
+                if (child != null && parent != null) {
+                    dependsOn.get(child).add(parent);
+                }
+            }
+        }
+        return dependsOn;
+    }
+
+    /** A load order in which every table follows the tables it references; fails on a cycle. */
+    static List<String> order(Map<String, Set<String>> dependsOn) {
+        List<String> order = new ArrayList<>();
+        Map<String, Set<String>> remaining = new LinkedHashMap<>();
+        dependsOn.forEach((table, parents) -> remaining.put(table, new LinkedHashSet<>(parents)));
+        while (!remaining.isEmpty()) {
+            List<String> ready = new ArrayList<>();
+            remaining.forEach((table, parents) -> {
+                if (parents.isEmpty()) {
+                    ready.add(table);
+                }
+            });
+            if (ready.isEmpty()) {
+                throw new IllegalStateException("Foreign keys between " + remaining.keySet() + " form a cycle; " +
+                        "drop or defer one of them for the load");
+            }
+            ready.forEach(remaining::remove);
+            remaining.values().forEach(parents -> parents.removeAll(ready));
+            order.addAll(ready);
+        }
+        return order;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits the key space into partitions and copies them concurrently, each worker on its
+ * own source and target connections with its own progress row. With {@code consistentSnapshot}
+ * a coordinator transaction exports its snapshot and every worker reads through it, so all
+ * partitions together form one point-in-time copy of the source.
+ */
+public class ParallelMigrationService implements MigrationService {
+    private static final Logger log = LoggerFactory.getLogger(ParallelMigrationService.class);
+
+    private final Config config;
+    private final PartitionPlanner planner;
+
+    public ParallelMigrationService(Config config) {
+        this.config = config;
+        this.planner = PartitionPlanner.from(config);
+    }
+
+    @Override
+    public void run() throws Exception {
+        if (!config.consistentSnapshot()) {
+            run(null);
+            return;
+        }
+        // the snapshot stays importable only while the exporting transaction is open
+        try (Connection coordinator = DriverManager.getConnection(config.sourceUrl(), config.sourceUser(), config.sourcePassword())) {
+            coordinator.setAutoCommit(false);
+            coordinator.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            String snapshot;
+            try (Statement st = coordinator.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT pg_export_snapshot()")) {
+                rs.next();
+                snapshot = rs.getString(1);
+            }
+            log.info("Workers read from exported snapshot {}", snapshot);
+            try {
+                run(snapshot);
+            } finally {
+                coordinator.rollback();
+            }
+        }
+    }
+
+    /** Runs the workers, each importing {@code snapshot} first unless it is null. */
+    void run(String snapshot) throws Exception {
+        log.info("Starting parallel migration task {} with {} workers", config.taskName(), config.parallelism());
+        long start = System.nanoTime();
+        PartitionPlanner.Plan plan = loadOrPlan();
+        List<Partition> partitions = plan.partitions();
+        long estimatedPerPartition = plan.estimatedRows() > 0 ? plan.estimatedRows() / partitions.size() : -1;
+
+        ExecutorService workers = Executors.newFixedThreadPool(config.parallelism());
+        Throttle throttle = new Throttle(config);
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (Partition partition : partitions) {
+                results.add(workers.submit(() -> migrate(partition, snapshot, throttle, estimatedPerPartition, start)));
+            }
+            long processed = 0;
+            Exception failure = null;
+            for (Future<Long> result : results) {
+                try {
+                    processed += result.get();
+                } catch (ExecutionException e) {
+                    log.error("Partition failed", e.getCause());
+                    if (failure == null) {
+                        failure = e.getCause() instanceof Exception cause ? cause : e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            log.info("Parallel migration finished. Processed {} ids in {} partitions", processed, partitions.size());
+        } finally {
+            workers.shutdownNow();
+            throttle.close();
+        }
+    }
+
+    private PartitionPlanner.Plan loadOrPlan() throws Exception {
+        try (Connection src = DriverManager.getConnection(config.sourceUrl(), config.sourceUser(), config.sourcePassword());
+             Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+            ProgressStore progress = new ProgressStore(dst);
+            progress.ensureTable();
+            progress.ensurePartitionTable();
+            List<Partition> partitions = progress.loadPartitions(config.taskName());
+            if (!partitions.isEmpty()) {
+                log.info("Resuming with {} partitions planned by an earlier run", partitions.size());
+                return new PartitionPlanner.Plan(partitions, planner.estimateRows(src));
+            }
+            PartitionPlanner.Plan plan = planner.plan(src, config.partitions());
+            progress.savePartitions(config.taskName(), plan.partitions());
+            return plan;
+        }
+    }
+
+    private long migrate(Partition partition, String snapshot, Throttle throttle, long estimated, long start) throws Exception {
+        try (Connection src = DriverManager.getConnection(config.sourceUrl(), config.sourceUser(), config.sourcePassword());
+             Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+            if (snapshot != null) {
+                src.setAutoCommit(false);
+                src.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                try (Statement st = src.createStatement()) {
+                    st.execute("SET TRANSACTION SNAPSHOT " + CopyMigrationService.quote(snapshot));
+                }
+            }
+            return new CopyMigrationService(config, throttle).migratePartition(src, dst, partition, estimated, start);
+        }
+    }
+}
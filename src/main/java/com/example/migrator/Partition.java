@@ -0,0 +1,12 @@
+package com.example.migrator;
+
+/**
+ * A slice of the source key space: ids greater than {@code from} and not greater than {@code to}.
+ * A null bound leaves that side of the range open.
+ */
+public record Partition(int number, String from, String to) {
+
+    public String progressKey(String task) {
+        return task + "#" + number;
+    }
+}
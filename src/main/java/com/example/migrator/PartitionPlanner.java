@@ -0,0 +1,152 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Splits the qualifying {@code person} ids, or the keys of another source table, into contiguous
+ * ranges holding roughly the same number of rows. Boundaries come from the planner statistics of the key when the
+ * table has been analyzed, otherwise from a sorted {@code TABLESAMPLE} of the ids, so
+ * planning never scans the whole table.
+ */
+public class PartitionPlanner {
+    private static final Logger log = LoggerFactory.getLogger(PartitionPlanner.class);
+
+    private static final int SAMPLE_ROWS = 10_000;
+    private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\":\\s*(\\d+)");
+
+    public record Plan(List<Partition> partitions, long estimatedRows) {
+    }
+
+    private final String table;
+    private final String filter;
+    private final String key;
+
+    public PartitionPlanner() {
+        this("person", Config.KIDS_FILTER, "id");
+    }
+
+    /** Plans over the {@code key} values of the rows of {@code table} that match {@code filter}. */
+    public PartitionPlanner(String table, String filter, String key) {
+        this.table = table;
+        this.filter = filter;
+        this.key = key;
+    }
+
+    public static PartitionPlanner from(Config config) {
+        return new PartitionPlanner(config.sourceTable(), config.sourceFilter(), config.keyColumn());
+    }
+
+    public Plan plan(Connection src, int partitions) throws Exception {
+        long estimatedRows = estimateRows(src);
+        List<String> bounds = histogramBounds(src);
+        if (bounds.size() < 2) {
+            log.info("No histogram for {}.{}, sampling ids instead", table, key);
+            bounds = sampledIds(src);
+        }
+        List<Partition> plan = toPartitions(cutPoints(bounds, partitions));
+        log.info("Planned {} partitions for about {} rows: {}", plan.size(), estimatedRows, plan);
+        return new Plan(plan, estimatedRows);
+    }
+
+    /**
+     * Planner estimate of the number of ids to copy, taken from {@code EXPLAIN} so that it
+     * accounts for the age filter.
+     */
+    public long estimateRows(Connection src) throws Exception {
+        try (Statement st = src.createStatement();
+             ResultSet rs = st.executeQuery("EXPLAIN (FORMAT JSON) SELECT " + key + " FROM " + table + " WHERE " + filter)) {
+            if (rs.next()) {
+                Matcher m = PLAN_ROWS.matcher(rs.getString(1));
+                if (m.find()) {
+                    return Long.parseLong(m.group(1));
+                }
+            }
+        }
+        return -1;
+    }
+
+    private List<String> histogramBounds(Connection src) throws Exception {
+        List<String> bounds = new ArrayList<>();
+        try (PreparedStatement ps = src.prepareStatement("SELECT b FROM pg_stats, unnest(histogram_bounds::text::text[]) WITH ORDINALITY AS h(b, n) " +
+                "WHERE schemaname = current_schema() AND tablename = ? AND attname = ? ORDER BY n")) {
+            ps.setString(1, table);
+            ps.setString(2, key);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    bounds.add(rs.getString(1));
+                }
+            }
+        }
+        return bounds;
+    }
+
+    private List<String> sampledIds(Connection src) throws Exception {
+        double reltuples = 0;
+        try (PreparedStatement ps = src.prepareStatement("SELECT reltuples FROM pg_class WHERE oid = to_regclass(?)")) {
+            ps.setString(1, table);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    reltuples = rs.getDouble(1);
+                }
+            }
+        }
+        double percent = reltuples > SAMPLE_ROWS ? 100.0 * SAMPLE_ROWS / reltuples : 100.0;
+        List<String> ids = new ArrayList<>();
+        try (PreparedStatement ps = src.prepareStatement("SELECT " + key + " FROM " + table + " TABLESAMPLE SYSTEM (?) WHERE " + filter +
+                " ORDER BY " + key)) {
+            ps.setDouble(1, percent);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getString(1));
+                }
+            }
+        }
+        log.debug("Sampled {} ids ({}% of about {} rows)", ids.size(), percent, (long) reltuples);
+        return ids;
+    }
+
+    /**
+     * Picks {@code partitions - 1} evenly spaced values out of sorted quantile points, plus the
+     * last point as the upper bound of the final partition.
+     */
+    static List<String> cutPoints(List<String> sorted, int partitions) {
+        List<String> cuts = new ArrayList<>();
+        if (sorted.isEmpty()) {
+            return cuts;
+        }
+        for (int k = 1; k < partitions; k++) {
+            cuts.add(sorted.get((int) ((long) k * (sorted.size() - 1) / partitions)));
+        }
+        cuts.add(sorted.get(sorted.size() - 1));
+        return cuts;
+    }
+
+    /**
+     * Turns sorted upper bounds into partitions. The first and last partitions are left open so
+     * that ids outside the sampled bounds, or added after planning, are still picked up.
+     */
+    static List<Partition> toPartitions(List<String> upperBounds) {
+        List<Partition> partitions = new ArrayList<>();
+        String from = null;
+        for (int i = 0; i < upperBounds.size() - 1; i++) {
+            String to = upperBounds.get(i);
+            if (to == null || to.equals(from)) {
+                continue;
+            }
+            partitions.add(new Partition(partitions.size(), from, to));
+            from = to;
+        }
+        partitions.add(new Partition(partitions.size(), from, null));
+        return partitions;
+    }
+}
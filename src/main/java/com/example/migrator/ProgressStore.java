@@ -0,0 +1,115 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Progress bookkeeping kept in the target database: the last copied id per task
+ * and, for partitioned runs, the partition plan the task was started with.
+ */
+public class ProgressStore implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ProgressStore.class);
+
+    private static final String UPSERT_SQL = "INSERT INTO migration_progress(task_name, last_id) VALUES (?, ?) " +
+            "ON CONFLICT (task_name) DO UPDATE SET last_id = EXCLUDED.last_id";
+
+    private final Connection dst;
+    private PreparedStatement upsert;
+
+    public ProgressStore(Connection dst) {
+        this.dst = dst;
+    }
+
+    public void ensureTable() throws Exception {
+        log.debug("Ensuring progress table exists");
+        try (Statement st = dst.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS migration_progress (task_name text primary key, last_id text)");
+        }
+    }
+
+    public void ensurePartitionTable() throws Exception {
+        try (Statement st = dst.createStatement()) {
+            st.executeUpdate("CREATE TABLE IF NOT EXISTS migration_partitions (task_name text, partition_no int, " +
+                    "range_start text, range_end text, primary key (task_name, partition_no))");
+        }
+    }
+
+    public String load(String task) throws Exception {
+        log.debug("Loading progress for task {}", task);
+        try (PreparedStatement ps = dst.prepareStatement("SELECT last_id FROM migration_progress WHERE task_name = ?")) {
+            ps.setString(1, task);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString(1);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records progress inside the caller's open transaction, so it commits or rolls back together
+     * with the batch it describes.
+     */
+    public void checkpoint(String task, String lastId) throws Exception {
+        log.debug("Checkpointing task {} at {}", task, lastId);
+        if (upsert == null) {
+            upsert = dst.prepareStatement(UPSERT_SQL);
+        }
+        upsert.setString(1, task);
+        upsert.setString(2, lastId);
+        upsert.executeUpdate();
+    }
+
+    public void save(String task, String lastId) throws Exception {
+        log.debug("Saving progress for task {}: {}", task, lastId);
+        dst.setAutoCommit(false);
+        checkpoint(task, lastId);
+        dst.commit();
+    }
+
+    public List<Partition> loadPartitions(String task) throws Exception {
+        List<Partition> partitions = new ArrayList<>();
+        try (PreparedStatement ps = dst.prepareStatement("SELECT partition_no, range_start, range_end FROM migration_partitions " +
+                "WHERE task_name = ? ORDER BY partition_no")) {
+            ps.setString(1, task);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    partitions.add(new Partition(rs.getInt(1), rs.getString(2), rs.getString(3)));
+                }
+            }
+        }
+        return partitions;
+    }
+
+    public void savePartitions(String task, List<Partition> partitions) throws Exception {
+        dst.setAutoCommit(false);
+        try (PreparedStatement ps = dst.prepareStatement("INSERT INTO migration_partitions(task_name, partition_no, range_start, range_end) " +
+                "VALUES (?, ?, ?, ?)")) {
+            for (Partition p : partitions) {
+                ps.setString(1, task);
+                ps.setInt(2, p.number());
+                ps.setString(3, p.from());
+                ps.setString(4, p.to());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+        dst.commit();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (upsert != null) {
+            upsert.close();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.migrator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * One row on its way through the {@link RowTransform}s, reused for every row of a batch. Values
+ * are UTF-8 byte ranges that point into the extracted batch until a transform replaces them;
+ * replacements go into a scratch array per column that is kept between rows, so steady-state
+ * transforms do not allocate.
+ */
+public final class Row {
+    private final List<String> columns;
+    private final byte[][] data;
+    private final int[] start;
+    private final int[] end;
+    private final boolean[] nulls;
+    private final byte[][] scratch;
+    private boolean modified;
+
+    public Row(List<String> columns) {
+        this.columns = List.copyOf(columns);
+        int n = columns.size();
+        data = new byte[n][];
+        start = new int[n];
+        end = new int[n];
+        nulls = new boolean[n];
+        scratch = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            scratch[i] = new byte[32];
+        }
+    }
+
+    public List<String> columns() {
+        return columns;
+    }
+
+    /** Position of {@code column}; meant for {@link RowTransform#bind}, not for every row. */
+    public static int index(List<String> columns, String column) {
+        int i = columns.indexOf(column);
+        if (i < 0) {
+            throw new IllegalArgumentException("Unknown column " + column + ", row has " + columns);
+        }
+        return i;
+    }
+
+    /** Reads the cursor's current record; columns beyond the record's fields start as NULL. */
+    void load(CopyCsv.Cursor cursor) {
+        modified = false;
+        int i = 0;
+        while (cursor.nextField()) {
+            if (i == data.length) {
+                throw new IllegalArgumentException("Source row has more fields than the columns " + columns);
+            }
+            if (cursor.isNull()) {
+                nulls[i] = true;
+            } else if (cursor.quoted()) {
+                unescape(i, cursor.data(), cursor.start(), cursor.end());
+            } else {
+                point(i, cursor.data(), cursor.start(), cursor.end());
+            }
+            i++;
+        }
+        for (; i < data.length; i++) {
+            nulls[i] = true;
+        }
+    }
+
+    private void point(int i, byte[] bytes, int from, int to) {
+        nulls[i] = false;
+        data[i] = bytes;
+        start[i] = from;
+        end[i] = to;
+    }
+
+    /** Undoes the doubled quotes of a quoted CSV field, into the column's scratch array. */
+    private void unescape(int i, byte[] bytes, int from, int to) {
+        byte[] target = scratch(i, to - from);
+        int n = 0;
+        for (int k = from; k < to; k++) {
+            target[n++] = bytes[k];
+            if (bytes[k] == '"') {
+                k++;
+            }
+        }
+        point(i, target, 0, n);
+    }
+
+    private byte[] scratch(int i, int length) {
+        if (scratch[i].length < length) {
+            scratch[i] = new byte[Math.max(length, scratch[i].length * 2)];
+        }
+        return scratch[i];
+    }
+
+    public int size() {
+        return data.length;
+    }
+
+    public boolean isNull(int i) {
+        return nulls[i];
+    }
+
+    /** Array holding column {@code i}'s value between {@link #start} and {@link #end}; only valid until the next change. */
+    public byte[] bytes(int i) {
+        return data[i];
+    }
+
+    public int start(int i) {
+        return start[i];
+    }
+
+    public int end(int i) {
+        return end[i];
+    }
+
+    public int length(int i) {
+        return end[i] - start[i];
+    }
+
+    /** The value as a String, for transforms that prefer convenience over allocation. */
+    public String text(int i) {
+        return nulls[i] ? null : new String(data[i], start[i], end[i] - start[i], StandardCharsets.UTF_8);
+    }
+
+    public void setNull(int i) {
+        nulls[i] = true;
+        modified = true;
+    }
+
+    /** Keeps only {@code length} bytes of the value, starting {@code offset} bytes in. */
+    public void slice(int i, int offset, int length) {
+        start[i] += offset;
+        end[i] = start[i] + length;
+        modified = true;
+    }
+
+    public void set(int i, byte[] value, int from, int to) {
+        byte[] target = scratch(i, to - from);
+        System.arraycopy(value, from, target, 0, to - from);
+        point(i, target, 0, to - from);
+        modified = true;
+    }
+
+    /** Sets a value from characters, encoding them as UTF-8 straight into the scratch array. */
+    public void set(int i, CharSequence value) {
+        byte[] target = scratch(i, value.length() * 3);
+        int n = 0;
+        for (int k = 0; k < value.length(); k++) {
+            char c = value.charAt(k);
+            if (c < 0x80) {
+                target[n++] = (byte) c;
+            } else if (c < 0x800) {
+                target[n++] = (byte) (0xc0 | c >> 6);
+                target[n++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && k + 1 < value.length()) {
+                int cp = Character.toCodePoint(c, value.charAt(++k));
+                target[n++] = (byte) (0xf0 | cp >> 18);
+                target[n++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                target[n++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                target[n++] = (byte) (0x80 | cp & 0x3f);
+            } else {
+                target[n++] = (byte) (0xe0 | c >> 12);
+                target[n++] = (byte) (0x80 | c >> 6 & 0x3f);
+                target[n++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        point(i, target, 0, n);
+        modified = true;
+    }
+
+    /** Whether a transform changed any value since the row was loaded. */
+    public boolean modified() {
+        return modified;
+    }
+}
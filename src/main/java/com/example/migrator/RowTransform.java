@@ -0,0 +1,24 @@
+package com.example.migrator;
+
+import java.util.List;
+
+/**
+ * One step of the transformation stage between extract and load. Steps are chained in the
+ * order given by {@code migration.transforms}; each changes the shared {@link Row} in place.
+ * Custom steps are named by class in the same list and need a public constructor taking
+ * either no arguments or the text after the class name's colon.
+ */
+public interface RowTransform {
+
+    /**
+     * Called once with the columns of the incoming rows, before the first row. Returns the
+     * columns of the rows this step produces: renaming a column or adding a derived one shows
+     * up here, and derived columns start out NULL in every row.
+     */
+    default List<String> bind(List<String> columns) {
+        return columns;
+    }
+
+    /** Transforms the row in place. Returns false to leave the row out of the load. */
+    boolean apply(Row row);
+}
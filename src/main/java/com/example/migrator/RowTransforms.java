@@ -0,0 +1,329 @@
+package com.example.migrator;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The transformation stage of a copy: the {@link RowTransform} chain from
+ * {@code migration.transforms} plus the mapping of its output onto {@code targetColumns}.
+ * Steps are separated by semicolons, each a name with an optional argument after a colon:
+ * <ul>
+ *     <li>{@code rename:old=new} renames a column, for example to match the target;</li>
+ *     <li>{@code constant:column=value} adds a derived column holding a fixed value;</li>
+ *     <li>{@code date:column} cuts a timestamp down to its date;</li>
+ *     <li>{@code mask:column=keep} replaces all but the last {@code keep} (default 4) characters with {@code *};</li>
+ *     <li>{@code require:column} drops rows in which the column is NULL;</li>
+ *     <li>any other name is the class of a custom {@link RowTransform}.</li>
+ * </ul>
+ * Rows no step changed are copied as extracted, without being re-encoded.
+ */
+public class RowTransforms {
+
+    private static final Pattern ALIAS = Pattern.compile("(?is).*\\s+as\\s+\"?(\\w+)\"?\\s*");
+
+    private final RowTransform[] steps;
+    private final int sourceWidth;
+    private final List<String> columns;
+    private final int[] targets;
+    private final String targetColumns;
+    private final boolean sameLayout;
+
+    public RowTransforms(List<String> sourceColumns, List<RowTransform> steps, List<String> targetColumns) {
+        this.steps = steps.toArray(RowTransform[]::new);
+        this.sourceWidth = sourceColumns.size();
+        List<String> columns = sourceColumns;
+        for (RowTransform step : steps) {
+            List<String> next = step.bind(columns);
+            if (next.size() < columns.size()) {
+                throw new IllegalArgumentException(step.getClass().getSimpleName() + " removes columns; " +
+                        "leave them out of targetColumns instead");
+            }
+            columns = next;
+        }
+        this.columns = List.copyOf(columns);
+        List<String> target = targetColumns.isEmpty() ? this.columns : targetColumns;
+        this.targets = new int[target.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = Row.index(this.columns, target.get(i));
+        }
+        this.targetColumns = String.join(", ", target);
+        int[] identity = new int[sourceWidth];
+        Arrays.setAll(identity, i -> i);
+        this.sameLayout = this.columns.size() == sourceWidth && Arrays.equals(targets, identity);
+    }
+
+    public static RowTransforms from(Config config) {
+        List<String> targetColumns = config.targetColumns().isBlank() ? List.of() : columnNames(config.targetColumns());
+        return new RowTransforms(columnNames(config.sourceColumns()), parse(config.transforms()), targetColumns);
+    }
+
+    /** Whether batches can be loaded as extracted: no steps and the target takes the source columns as they are. */
+    public boolean isEmpty() {
+        return steps.length == 0 && sameLayout;
+    }
+
+    /** Column list for COPY into the target table. */
+    public String targetColumns() {
+        return targetColumns;
+    }
+
+    public Row newRow() {
+        return new Row(columns);
+    }
+
+    /** Runs every record of {@code in} through the chain into {@code out}; returns the number of rows dropped. */
+    public int transform(CopyBuffer in, CopyBuffer out, CopyCsv.Cursor cursor, Row row) {
+        int dropped = 0;
+        cursor.reset(in);
+        records:
+        while (cursor.nextRecord()) {
+            row.load(cursor);
+            for (RowTransform step : steps) {
+                if (!step.apply(row)) {
+                    dropped++;
+                    continue records;
+                }
+            }
+            if (sameLayout && !row.modified()) {
+                out.write(in.array(), cursor.recordStart(), cursor.position() - cursor.recordStart());
+                if (in.array()[cursor.position() - 1] != '\n') {
+                    CopyCsv.endRecord(out);
+                }
+                continue;
+            }
+            for (int i = 0; i < targets.length; i++) {
+                if (i > 0) {
+                    CopyCsv.delimiter(out);
+                }
+                int column = targets[i];
+                if (!row.isNull(column)) {
+                    CopyCsv.writeValue(out, row.bytes(column), row.start(column), row.end(column), false);
+                }
+            }
+            CopyCsv.endRecord(out);
+        }
+        return dropped;
+    }
+
+    /** Output names of a select list: the alias where there is one, else the column referenced. */
+    static List<String> columnNames(String selectList) {
+        List<String> names = new ArrayList<>();
+        int depth = 0;
+        int from = 0;
+        for (int i = 0; i <= selectList.length(); i++) {
+            char c = i < selectList.length() ? selectList.charAt(i) : ',';
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                names.add(columnName(selectList.substring(from, i).trim()));
+                from = i + 1;
+            }
+        }
+        return names;
+    }
+
+    private static String columnName(String expression) {
+        Matcher alias = ALIAS.matcher(expression);
+        if (alias.matches()) {
+            return alias.group(1);
+        }
+        String column = expression.split("::", 2)[0].trim();
+        return column.substring(column.lastIndexOf('.') + 1).replace("\"", "");
+    }
+
+    static List<RowTransform> parse(String spec) {
+        List<RowTransform> steps = new ArrayList<>();
+        for (String step : spec.split(";")) {
+            step = step.trim();
+            if (step.isEmpty()) {
+                continue;
+            }
+            int colon = step.indexOf(':');
+            String name = colon < 0 ? step : step.substring(0, colon).trim();
+            String arg = colon < 0 ? null : step.substring(colon + 1).trim();
+            steps.add(switch (name) {
+                case "rename" -> new Rename(arg);
+                case "constant" -> new Constant(arg);
+                case "date" -> new DateOnly(arg);
+                case "mask" -> new Mask(arg);
+                case "require" -> new Require(arg);
+                default -> custom(name, arg);
+            });
+        }
+        return steps;
+    }
+
+    private static RowTransform custom(String className, String arg) {
+        try {
+            Class<? extends RowTransform> type = Class.forName(className).asSubclass(RowTransform.class);
+            return arg == null ? type.getConstructor().newInstance() : type.getConstructor(String.class).newInstance(arg);
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Unknown transform " + className, e);
+        }
+    }
+
+    private static String[] pair(String arg, String step) {
+        String[] parts = arg == null ? new String[0] : arg.split("=", 2);
+        if (parts.length != 2) {
+            throw new IllegalArgumentException(step + " needs column=value, got " + arg);
+        }
+        return new String[]{parts[0].trim(), parts[1].trim()};
+    }
+
+    private static final class Rename implements RowTransform {
+        private final String from;
+        private final String to;
+
+        Rename(String arg) {
+            String[] pair = pair(arg, "rename");
+            from = pair[0];
+            to = pair[1];
+        }
+
+        @Override
+        public List<String> bind(List<String> columns) {
+            List<String> renamed = new ArrayList<>(columns);
+            renamed.set(Row.index(columns, from), to);
+            return renamed;
+        }
+
+        @Override
+        public boolean apply(Row row) {
+            return true;
+        }
+    }
+
+    private static final class Constant implements RowTransform {
+        private final String column;
+        private final byte[] value;
+        private int index;
+
+        Constant(String arg) {
+            String[] pair = pair(arg, "constant");
+            column = pair[0];
+            value = pair[1].getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public List<String> bind(List<String> columns) {
+            List<String> derived = new ArrayList<>(columns);
+            if (!derived.contains(column)) {
+                derived.add(column);
+            }
+            index = derived.indexOf(column);
+            return derived;
+        }
+
+        @Override
+        public boolean apply(Row row) {
+            row.set(index, value, 0, value.length);
+            return true;
+        }
+    }
+
+    private static final class DateOnly implements RowTransform {
+        private final String column;
+        private int index;
+
+        DateOnly(String column) {
+            this.column = column;
+        }
+
+        @Override
+        public List<String> bind(List<String> columns) {
+            index = Row.index(columns, column);
+            return columns;
+        }
+
+        @Override
+        public boolean apply(Row row) {
+            // yyyy-mm-dd followed by a time part
+            if (!row.isNull(index) && row.length(index) > 10) {
+                row.slice(index, 0, 10);
+            }
+            return true;
+        }
+    }
+
+    private static final class Mask implements RowTransform {
+        private final String column;
+        private final int keep;
+        private int index;
+        private byte[] masked = new byte[64];
+
+        Mask(String arg) {
+            String[] parts = String.valueOf(arg).split("=", 2);
+            column = parts[0].trim();
+            keep = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 4;
+        }
+
+        @Override
+        public List<String> bind(List<String> columns) {
+            index = Row.index(columns, column);
+            return columns;
+        }
+
+        @Override
+        public boolean apply(Row row) {
+            if (row.isNull(index)) {
+                return true;
+            }
+            byte[] value = row.bytes(index);
+            int start = row.start(index);
+            int end = row.end(index);
+            int chars = 0;
+            for (int i = start; i < end; i++) {
+                if ((value[i] & 0xc0) != 0x80) {
+                    chars++;
+                }
+            }
+            if (chars <= keep) {
+                return true;
+            }
+            if (masked.length < end - start) {
+                masked = new byte[Math.max(end - start, masked.length * 2)];
+            }
+            int n = 0;
+            int seen = 0;
+            for (int i = start; i < end; i++) {
+                boolean lead = (value[i] & 0xc0) != 0x80;
+                if (lead) {
+                    seen++;
+                }
+                if (seen > chars - keep) {
+                    masked[n++] = value[i];
+                } else if (lead) {
+                    masked[n++] = '*';
+                }
+            }
+            row.set(index, masked, 0, n);
+            return true;
+        }
+    }
+
+    private static final class Require implements RowTransform {
+        private final String column;
+        private int index;
+
+        Require(String column) {
+            this.column = column;
+        }
+
+        @Override
+        public List<String> bind(List<String> columns) {
+            index = Row.index(columns, column);
+            return columns;
+        }
+
+        @Override
+        public boolean apply(Row row) {
+            return !row.isNull(index);
+        }
+    }
+}
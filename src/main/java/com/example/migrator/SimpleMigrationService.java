@@ -1,36 +1,31 @@
 package com.example.migrator;
 
-import io.prometheus.client.Counter;
-import io.prometheus.client.Gauge;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class SimpleMigrationService implements MigrationService {
     private static final Logger log = LoggerFactory.getLogger(SimpleMigrationService.class);
 
-    static final Counter processedCounter = Counter.build()
-            .name("migrator_processed_total")
-            .help("Total processed records")
-            .register();
-
-    static final Counter errorCounter = Counter.build()
-            .name("migrator_errors_total")
-            .help("Total errors during migration")
-            .register();
-
-    static final Gauge speedGauge = Gauge.build()
-            .name("migrator_speed")
-            .help("Average records per second")
-            .register();
+    private static final int FETCH_SIZE = 10_000;
 
     private final Config config;
+    private final List<String> columns;
+    private final int keyIndex;
+    private final String insertSql;
+    private ProgressStore progress;
+    private MigrationMetrics metrics;
 
     public SimpleMigrationService(Config config) {
         this.config = config;
+        this.columns = config.plainColumns("simple");
+        this.keyIndex = columns.indexOf(config.keyColumn()) + 1;
+        this.insertSql = "INSERT INTO " + config.targetTable() + "(" + String.join(", ", columns) + ") VALUES (" +
+                String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
     }
 
     @Override
@@ -38,34 +33,50 @@ public class SimpleMigrationService implements MigrationService {
         log.info("Starting migration task {}", config.taskName());
         long start = System.nanoTime();
         try (Connection src = DriverManager.getConnection(config.sourceUrl(), config.sourceUser(), config.sourcePassword());
-             Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+             Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword());
+             ProgressStore progress = new ProgressStore(dst)) {
 
+            this.progress = progress;
+            this.metrics = MigrationMetrics.forTask(config.taskName());
             ensureProgressTable(dst);
             String lastId = loadProgress(dst, config.taskName());
             List<String> ids = config.ids();
-            if (ids == null) {
-                ids = fetchIds(src, lastId);
-            } else if (lastId != null) {
-                ids = ids.subList(ids.indexOf(lastId) + 1, ids.size());
-            }
+            if (ids == null && "keyset".equals(config.extractMode())) {
+                processRanges(src, dst, lastId, start);
+            } else {
+                if (ids == null) {
+                    ids = fetchIds(src, lastId);
+                } else if (lastId != null) {
+                    ids = ids.subList(ids.indexOf(lastId) + 1, ids.size());
+                }
 
-            log.info("Total ids to process: {}", ids.size());
-            processIds(src, dst, ids, start);
+                log.info("Total ids to process: {}", ids.size());
+                processIds(src, dst, ids, start);
+            }
         }
-        log.info("Migration finished. Total processed {}", (int) processedCounter.get());
+        log.info("Migration finished. Total processed {}", MigrationMetrics.totalProcessed());
     }
 
-    private List<String> fetchIds(Connection src, String lastId) throws Exception {
-        List<String> ids = new ArrayList<>();
-        String query = "SELECT id FROM person WHERE birthDay > current_date - interval '18 years'" +
-                (lastId != null ? " AND id > '" + lastId + "'" : "") +
-                " ORDER BY id";
-        try (Statement st = src.createStatement(); ResultSet rs = st.executeQuery(query)) {
-            while (rs.next()) {
-                ids.add(rs.getString(1));
+    private IdSet fetchIds(Connection src, String lastId) throws Exception {
+        IdSet.Builder ids = IdSet.builder();
+        String key = config.keyColumn();
+        String query = "SELECT " + key + " FROM " + config.sourceTable() + " WHERE " + config.sourceFilter() +
+                (lastId != null ? " AND " + key + " > '" + lastId + "'" : "") +
+                " ORDER BY " + key;
+        // stream the ids through a cursor instead of buffering the whole result set
+        src.setAutoCommit(false);
+        try (Statement st = src.createStatement()) {
+            st.setFetchSize(FETCH_SIZE);
+            try (ResultSet rs = st.executeQuery(query)) {
+                while (rs.next()) {
+                    ids.add(rs.getString(1));
+                }
             }
+        } finally {
+            src.commit();
+            src.setAutoCommit(true);
         }
-        return ids;
+        return ids.build();
     }
 
     private void processIds(Connection src, Connection dst, List<String> ids, long start) throws Exception {
@@ -79,73 +90,123 @@ public class SimpleMigrationService implements MigrationService {
             batch.add(id);
             if (batch.size() >= batchSize) {
                 transferBatch(src, dst, batch);
-                processedCounter.inc(batch.size());
+                metrics.rows(batch.size());
                 processed += batch.size();
                 double duration = (System.nanoTime() - start) / 1_000_000_000.0;
                 double speed = processed / duration;
-                speedGauge.set(speed);
+                metrics.speed(speed);
                 log.info("Processed {} of {} ids ({} recs/sec)", processed, ids.size(), String.format("%.2f", speed));
-                saveProgress(dst, config.taskName(), batch.get(batch.size() - 1));
                 batch.clear();
             }
         }
         if (!batch.isEmpty()) {
             transferBatch(src, dst, batch);
-            processedCounter.inc(batch.size());
+            metrics.rows(batch.size());
             processed += batch.size();
             double duration = (System.nanoTime() - start) / 1_000_000_000.0;
             double speed = processed / duration;
-            speedGauge.set(speed);
+            metrics.speed(speed);
             log.info("Processed {} of {} ids ({} recs/sec)", processed, ids.size(), String.format("%.2f", speed));
-            saveProgress(dst, config.taskName(), batch.get(batch.size() - 1));
+        }
+    }
+
+    private void processRanges(Connection src, Connection dst, String lastId, long start) throws Exception {
+        long processed = 0;
+        String select = "SELECT " + config.sourceColumns() + " FROM " + config.sourceTable() + " WHERE " + config.sourceFilter();
+        String key = config.keyColumn();
+        try (PreparedStatement first = src.prepareStatement(select + " ORDER BY " + key + " LIMIT ?");
+             PreparedStatement next = src.prepareStatement(select + " AND " + key + " > ? ORDER BY " + key + " LIMIT ?")) {
+            while (true) {
+                PreparedStatement statement = lastId == null ? first : next;
+                int param = 1;
+                if (lastId != null) {
+                    statement.setObject(param++, lastId, Types.OTHER);
+                }
+                statement.setInt(param, config.batchSize());
+                int rows = 0;
+                long stageStart = System.nanoTime();
+                try (ResultSet rs = statement.executeQuery();
+                     PreparedStatement ps = dst.prepareStatement(insertSql)) {
+                    metrics.time(MigrationMetrics.EXTRACT, stageStart);
+                    dst.setAutoCommit(false);
+                    try {
+                        stageStart = System.nanoTime();
+                        while (rs.next()) {
+                            lastId = rs.getString(keyIndex);
+                            copyRow(rs, ps);
+                            rows++;
+                        }
+                        ps.executeBatch();
+                        metrics.time(MigrationMetrics.LOAD, stageStart);
+                        if (rows > 0) {
+                            stageStart = System.nanoTime();
+                            progress.checkpoint(config.taskName(), lastId);
+                            metrics.time(MigrationMetrics.CHECKPOINT, stageStart);
+                        }
+                        stageStart = System.nanoTime();
+                        dst.commit();
+                        metrics.time(MigrationMetrics.COMMIT, stageStart);
+                    } catch (Exception e) {
+                        metrics.error();
+                        dst.rollback();
+                        throw e;
+                    }
+                }
+                if (rows == 0) {
+                    return;
+                }
+                metrics.rows(rows);
+                processed += rows;
+                double duration = (System.nanoTime() - start) / 1_000_000_000.0;
+                double speed = processed / duration;
+                metrics.speed(speed);
+                log.info("Processed {} ids up to {} ({} recs/sec)", processed, lastId, String.format("%.2f", speed));
+            }
         }
     }
 
     private void transferBatch(Connection src, Connection dst, List<String> batch) throws Exception {
         String inList = batch.stream().map(id -> "'" + id + "'").reduce((a, b) -> a + "," + b).orElse("'0'");
-        String sql = "SELECT id, birthday FROM person WHERE id IN (" + inList + ")";
+        String sql = "SELECT " + config.sourceColumns() + " FROM " + config.sourceTable() + " WHERE " + config.keyColumn() +
+                " IN (" + inList + ")";
+        long stageStart = System.nanoTime();
         try (Statement st = src.createStatement(); ResultSet rs = st.executeQuery(sql);
-             PreparedStatement ps = dst.prepareStatement("INSERT INTO kids(id, birthday) VALUES (?, ?)");) {
+             PreparedStatement ps = dst.prepareStatement(insertSql);) {
+            metrics.time(MigrationMetrics.EXTRACT, stageStart);
             dst.setAutoCommit(false);
             try {
+                stageStart = System.nanoTime();
                 while (rs.next()) {
-                    ps.setString(1, rs.getString(1));
-                    ps.setDate(2, rs.getDate(2));
-                    ps.addBatch();
+                    copyRow(rs, ps);
                 }
                 ps.executeBatch();
+                metrics.time(MigrationMetrics.LOAD, stageStart);
+                stageStart = System.nanoTime();
+                progress.checkpoint(config.taskName(), batch.get(batch.size() - 1));
+                metrics.time(MigrationMetrics.CHECKPOINT, stageStart);
+                stageStart = System.nanoTime();
                 dst.commit();
+                metrics.time(MigrationMetrics.COMMIT, stageStart);
             } catch (Exception e) {
-                errorCounter.inc();
+                metrics.error();
                 dst.rollback();
                 throw e;
             }
         }
     }
 
-    private void ensureProgressTable(Connection dst) throws Exception {
-        try (Statement st = dst.createStatement()) {
-            st.executeUpdate("CREATE TABLE IF NOT EXISTS migration_progress (task_name text primary key, last_id text)");
+    private void copyRow(ResultSet rs, PreparedStatement insert) throws SQLException {
+        for (int i = 1; i <= columns.size(); i++) {
+            insert.setObject(i, rs.getObject(i));
         }
+        insert.addBatch();
     }
 
-    private String loadProgress(Connection dst, String task) throws Exception {
-        try (Statement st = dst.createStatement(); ResultSet rs = st.executeQuery("SELECT last_id FROM migration_progress WHERE task_name='" + task + "'");) {
-            if (rs.next()) {
-                return rs.getString(1);
-            }
-        }
-        return null;
+    private void ensureProgressTable(Connection dst) throws Exception {
+        new ProgressStore(dst).ensureTable();
     }
 
-    private void saveProgress(Connection dst, String task, String lastId) throws Exception {
-        dst.setAutoCommit(false);
-        try (Statement st = dst.createStatement()) {
-            int updated = st.executeUpdate("UPDATE migration_progress SET last_id='" + lastId + "' WHERE task_name='" + task + "'");
-            if (updated == 0) {
-                st.executeUpdate("INSERT INTO migration_progress(task_name, last_id) VALUES('" + task + "', '" + lastId + "')");
-            }
-        }
-        dst.commit();
+    private String loadProgress(Connection dst, String task) throws Exception {
+        return new ProgressStore(dst).load(task);
     }
 }
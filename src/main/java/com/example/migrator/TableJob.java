@@ -0,0 +1,10 @@
+package com.example.migrator;
+
+/**
+ * One table of a multi-table migration: the rows of {@code sourceTable} matching
+ * {@code sourceFilter}, read as {@code sourceColumns} in {@code keyColumn} order and loaded
+ * into {@code targetColumns} of {@code targetTable}.
+ */
+public record TableJob(String name, String sourceTable, String sourceColumns, String sourceFilter, String keyColumn,
+                       String targetTable, String targetColumns, String transforms) {
+}
@@ -0,0 +1,190 @@
+package com.example.migrator;
+
+import io.prometheus.client.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the copy from overloading the source. Rows and bytes are paid for from two token
+ * buckets after every batch; a batch that overdraws a bucket makes its worker sleep until the
+ * debt is refilled, so one throttle shared by several workers caps their combined rate.
+ * Every {@code healthCheckMillis} a background thread probes the source for active backends,
+ * standby replay lag and the latency of the probe itself. Past any configured limit the pace
+ * factor halves, and while the source stays healthy it recovers a tenth at a time. The factor
+ * scales the bucket rates and, without rate limits, stretches the pause after each batch. The
+ * probe never holds up the workers; one that does not answer within the check interval times
+ * out and counts as unhealthy. The exported pace is labelled with the throttle's task.
+ */
+public class Throttle implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(Throttle.class);
+
+    static final Gauge paceGauge = Gauge.build()
+            .name("migrator_throttle_pace")
+            .help("Fraction of the configured rate the source currently allows")
+            .labelNames("task")
+            .register();
+
+    private static final double MIN_FACTOR = 1.0 / 32;
+
+    private final Config config;
+    private final int probeTimeoutSeconds;
+    private final ScheduledExecutorService prober;
+    private final Gauge.Child pace;
+    private Connection probe;
+    private double factor = 1;
+    private double rowTokens;
+    private double byteTokens;
+    private long refilledAt = System.nanoTime();
+
+    public Throttle(Config config) {
+        this.config = config;
+        this.probeTimeoutSeconds = (int) Math.max(1, (config.healthCheckMillis() + 999) / 1000);
+        this.rowTokens = config.maxRowsPerSecond();
+        this.byteTokens = config.maxBytesPerSecond();
+        this.pace = paceGauge.labels(config.taskName());
+        pace.set(factor);
+        if (watchesHealth()) {
+            prober = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "throttle-probe");
+                t.setDaemon(true);
+                return t;
+            });
+            prober.scheduleWithFixedDelay(() -> adjust(healthy()), 0, config.healthCheckMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            prober = null;
+        }
+    }
+
+    private boolean limitsRate() {
+        return config.maxRowsPerSecond() > 0 || config.maxBytesPerSecond() > 0;
+    }
+
+    private boolean watchesHealth() {
+        return config.maxSourceActiveBackends() > 0 || config.maxReplicationLagMillis() > 0 || config.maxSourceLatencyMillis() > 0;
+    }
+
+    /** Pays for a finished batch, sleeping as long as the buckets and the source's health require. */
+    public void pace(long rows, long bytes, long batchNanos) throws Exception {
+        if (!limitsRate() && !watchesHealth()) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            refill(now);
+            rowTokens -= rows;
+            byteTokens -= bytes;
+            waitNanos = Math.max(debtNanos(rowTokens, config.maxRowsPerSecond()), debtNanos(byteTokens, config.maxBytesPerSecond()));
+            if (!limitsRate() && factor < 1) {
+                waitNanos = (long) (batchNanos * (1 / factor - 1));
+            }
+        }
+        if (waitNanos > 0) {
+            log.debug("Throttling for {} ms at pace {}", waitNanos / 1_000_000, factor);
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    /** Adds the tokens earned since the last refill, keeping at most one second's worth. */
+    private void refill(long now) {
+        double seconds = (now - refilledAt) / 1e9;
+        refilledAt = now;
+        rowTokens = Math.min(config.maxRowsPerSecond() * factor, rowTokens + seconds * config.maxRowsPerSecond() * factor);
+        byteTokens = Math.min(config.maxBytesPerSecond() * factor, byteTokens + seconds * config.maxBytesPerSecond() * factor);
+    }
+
+    private long debtNanos(double tokens, long perSecond) {
+        return perSecond <= 0 || tokens >= 0 ? 0 : (long) (-tokens / (perSecond * factor) * 1e9);
+    }
+
+    private synchronized void adjust(boolean healthy) {
+        double previous = factor;
+        factor = healthy ? Math.min(1, factor + 0.1) : Math.max(MIN_FACTOR, factor / 2);
+        if (factor != previous) {
+            pace.set(factor);
+            if (!healthy) {
+                log.info("Source under load, slowing down to {}% of the allowed rate", Math.round(factor * 100));
+            }
+        }
+    }
+
+    /**
+     * Probes the source on a connection of its own, outside any snapshot the workers hold. Runs
+     * on the probe thread only; connecting, reading and the query all time out.
+     */
+    private boolean healthy() {
+        try {
+            if (probe == null || probe.isClosed()) {
+                Properties props = new Properties();
+                props.setProperty("user", config.sourceUser());
+                props.setProperty("password", config.sourcePassword());
+                props.setProperty("connectTimeout", String.valueOf(probeTimeoutSeconds));
+                props.setProperty("loginTimeout", String.valueOf(probeTimeoutSeconds));
+                props.setProperty("socketTimeout", String.valueOf(probeTimeoutSeconds));
+                probe = DriverManager.getConnection(config.sourceUrl(), props);
+            }
+            long start = System.nanoTime();
+            long active;
+            double lagMillis;
+            try (Statement st = probe.createStatement()) {
+                st.setQueryTimeout(probeTimeoutSeconds);
+                try (ResultSet rs = st.executeQuery("SELECT (SELECT count(*) FROM pg_stat_activity WHERE state = 'active' " +
+                        "AND backend_type = 'client backend' AND pid <> pg_backend_pid()), " +
+                        "(SELECT coalesce(max(extract(epoch FROM replay_lag)), 0) * 1000 FROM pg_stat_replication)")) {
+                    rs.next();
+                    active = rs.getLong(1);
+                    lagMillis = rs.getDouble(2);
+                }
+            }
+            long latencyMillis = (System.nanoTime() - start) / 1_000_000;
+            boolean healthy = (config.maxSourceActiveBackends() <= 0 || active <= config.maxSourceActiveBackends())
+                    && (config.maxReplicationLagMillis() <= 0 || lagMillis <= config.maxReplicationLagMillis())
+                    && (config.maxSourceLatencyMillis() <= 0 || latencyMillis <= config.maxSourceLatencyMillis());
+            if (!healthy) {
+                log.debug("Source health: {} active backends, {} ms replay lag, {} ms probe latency", active, lagMillis, latencyMillis);
+            }
+            return healthy;
+        } catch (Exception e) {
+            log.warn("Source health probe failed, treating the source as loaded: {}", e.getMessage());
+            closeProbe();
+            return false;
+        }
+    }
+
+    private void closeProbe() {
+        try {
+            if (probe != null) {
+                probe.close();
+            }
+        } catch (Exception e) {
+            log.debug("Failed to close the health probe connection", e);
+        }
+        probe = null;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (prober != null) {
+            prober.shutdownNow();
+            try {
+                prober.awaitTermination(probeTimeoutSeconds * 2L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+    }
+}
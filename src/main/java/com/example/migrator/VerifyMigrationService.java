@@ -0,0 +1,268 @@
+package com.example.migrator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Checks the copy without moving rows. Each key range gets a row count and an order-independent
+ * sum of per-row md5 hashes, computed by source and target at the same time; equal ranges are
+ * done, differing ones are split at their middle id and checked again, down to ranges of at
+ * most {@code batchSize} rows whose per-row hashes are compared. Only those leaves travel, so
+ * the traffic grows with the number of differences rather than with the table. Differing ids
+ * are recorded in {@code migration_verify_diffs} and, with {@code verifyRepair}, fixed. Range
+ * bounds, split points and row order all use the key's text under {@code COLLATE "C"}, so a range
+ * covers the same ids on both sides whatever collations source and target default to. The source
+ * side is {@code sourceTable} under {@code sourceFilter}, the target side {@code targetTable};
+ * rows are compared over {@code sourceColumns}, see {@link Config#plainColumns}.
+ */
+public class VerifyMigrationService implements MigrationService {
+    private static final Logger log = LoggerFactory.getLogger(VerifyMigrationService.class);
+
+    /** One side of the comparison: the rows of {@code table} matching {@code filter}. */
+    private record Side(Connection connection, String table, String filter) {
+    }
+
+    private record Summary(long rows, String hash) {
+    }
+
+    enum Kind { MISSING, EXTRA, CHANGED }
+
+    record Difference(String id, Kind kind) {
+    }
+
+    private final Config config;
+    private final PartitionPlanner planner;
+    private final String key;
+    private final String rowHash;
+
+    public VerifyMigrationService(Config config) {
+        this.config = config;
+        this.planner = PartitionPlanner.from(config);
+        this.key = config.keyColumn() + "::text";
+        this.rowHash = "md5(concat_ws('|', " + config.plainColumns("verify").stream()
+                .map(column -> "coalesce(" + column + "::text, '')").collect(Collectors.joining(", ")) + "))";
+    }
+
+    @Override
+    public void run() throws Exception {
+        log.info("Verifying task {} with {} workers{}", config.taskName(), config.parallelism(),
+                config.verifyRepair() ? ", repairing differences" : "");
+        long start = System.nanoTime();
+        List<Partition> partitions;
+        try (Connection src = DriverManager.getConnection(config.sourceUrl(), config.sourceUser(), config.sourcePassword());
+             Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+            partitions = inCOrder(planner.plan(src, config.partitions()).partitions());
+            try (PreparedStatement create = dst.prepareStatement("CREATE TABLE IF NOT EXISTS migration_verify_diffs " +
+                    "(task_name text, id text, kind text, primary key (task_name, id))");
+                 PreparedStatement clear = dst.prepareStatement("DELETE FROM migration_verify_diffs WHERE task_name = ?")) {
+                create.executeUpdate();
+                clear.setString(1, config.taskName());
+                clear.executeUpdate();
+            }
+        }
+        if (partitions.isEmpty()) {
+            partitions = List.of(new Partition(0, null, null));
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(config.parallelism());
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (Partition partition : partitions) {
+                results.add(workers.submit(() -> verifyPartition(partition)));
+            }
+            int differences = 0;
+            for (Future<Integer> result : results) {
+                try {
+                    differences += result.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
+            }
+            long seconds = (System.nanoTime() - start) / 1_000_000_000;
+            if (differences == 0) {
+                log.info("Verification finished in {} s, source and target match", seconds);
+            } else {
+                log.warn("Verification finished in {} s, {} ids differ{}; see migration_verify_diffs", seconds, differences,
+                        config.verifyRepair() ? " and were repaired" : "");
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /** Re-sorts planned bounds, which follow the source's collation, into byte order. */
+    static List<Partition> inCOrder(List<Partition> planned) {
+        List<String> bounds = new ArrayList<>(planned.stream().map(Partition::to).filter(Objects::nonNull)
+                .sorted(IncrementalSyncService::compareC).distinct().toList());
+        // the final bound is left open
+        bounds.add(null);
+        return PartitionPlanner.toPartitions(bounds);
+    }
+
+    private int verifyPartition(Partition partition) throws Exception {
+        ExecutorService sourceQueries = Executors.newSingleThreadExecutor();
+        try (Connection src = DriverManager.getConnection(config.sourceUrl(), config.sourceUser(), config.sourcePassword());
+             Connection dst = DriverManager.getConnection(config.targetUrl(), config.targetUser(), config.targetPassword())) {
+            Side source = new Side(src, config.sourceTable(), config.sourceFilter());
+            Side target = new Side(dst, config.targetTable(), "true");
+            List<Difference> differences = new ArrayList<>();
+            verify(sourceQueries, source, target, partition.from(), partition.to(), differences);
+            if (differences.isEmpty()) {
+                return 0;
+            }
+            log.info("Partition {}: {} ids differ", partition.number(), differences.size());
+            record(dst, differences);
+            if (config.verifyRepair()) {
+                repair(src, dst, partition, differences);
+            }
+            return differences.size();
+        } finally {
+            sourceQueries.shutdownNow();
+        }
+    }
+
+    private void verify(ExecutorService sourceQueries, Side source, Side target, String from, String to,
+                        List<Difference> differences) throws Exception {
+        Future<Summary> sourceSummary = sourceQueries.submit(() -> summary(source, from, to));
+        Summary targetSummary = summary(target, from, to);
+        Summary expected = get(sourceSummary);
+        if (expected.equals(targetSummary)) {
+            return;
+        }
+        long rows = Math.max(expected.rows(), targetSummary.rows());
+        if (rows <= config.batchSize()) {
+            log.debug("Range ({}, {}] differs, comparing its {} rows", from, to, rows);
+            Future<List<String[]>> sourceRows = sourceQueries.submit(() -> rowHashes(source, from, to));
+            differences.addAll(compare(get(sourceRows), rowHashes(target, from, to)));
+            return;
+        }
+        String middle = middle(expected.rows() >= targetSummary.rows() ? source : target, from, to, rows);
+        log.debug("Range ({}, {}] differs, splitting at {}", from, to, middle);
+        verify(sourceQueries, source, target, from, middle, differences);
+        verify(sourceQueries, source, target, middle, to, differences);
+    }
+
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private String where(Side side, String from, String to) {
+        return " FROM " + side.table() + " WHERE " + side.filter() +
+                (from != null ? " AND " + key + " COLLATE \"C\" > " + CopyMigrationService.quote(from) : "") +
+                (to != null ? " AND " + key + " COLLATE \"C\" <= " + CopyMigrationService.quote(to) : "");
+    }
+
+    /** Row count and the sum of the first 64 bits of every row hash, which ignores row order. */
+    private Summary summary(Side side, String from, String to) throws Exception {
+        try (PreparedStatement ps = side.connection().prepareStatement("SELECT count(*), " +
+                "coalesce(sum(('x' || left(" + rowHash + ", 16))::bit(64)::bigint), 0)::text" + where(side, from, to));
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return new Summary(rs.getLong(1), rs.getString(2));
+        }
+    }
+
+    /** The id after which half of the {@code rows} in the range lie. */
+    private String middle(Side side, String from, String to, long rows) throws Exception {
+        try (PreparedStatement ps = side.connection().prepareStatement("SELECT " + key + where(side, from, to) +
+                " ORDER BY " + key + " COLLATE \"C\" OFFSET ? LIMIT 1")) {
+            ps.setLong(1, rows / 2 - 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    private List<String[]> rowHashes(Side side, String from, String to) throws Exception {
+        List<String[]> rows = new ArrayList<>();
+        try (PreparedStatement ps = side.connection().prepareStatement("SELECT " + key + ", " + rowHash + where(side, from, to) +
+                " ORDER BY " + key + " COLLATE \"C\"");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                rows.add(new String[]{rs.getString(1), rs.getString(2)});
+            }
+        }
+        return rows;
+    }
+
+    /** Merge-joins two id-ordered lists of (id, hash) pairs. */
+    static List<Difference> compare(List<String[]> source, List<String[]> target) {
+        List<Difference> differences = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < source.size() || j < target.size()) {
+            int cmp = i == source.size() ? 1 : j == target.size() ? -1
+                    : IncrementalSyncService.compareC(source.get(i)[0], target.get(j)[0]);
+            if (cmp < 0) {
+                differences.add(new Difference(source.get(i++)[0], Kind.MISSING));
+            } else if (cmp > 0) {
+                differences.add(new Difference(target.get(j++)[0], Kind.EXTRA));
+            } else {
+                if (!source.get(i)[1].equals(target.get(j)[1])) {
+                    differences.add(new Difference(source.get(i)[0], Kind.CHANGED));
+                }
+                i++;
+                j++;
+            }
+        }
+        return differences;
+    }
+
+    private void record(Connection dst, List<Difference> differences) throws Exception {
+        dst.setAutoCommit(false);
+        try (PreparedStatement insert = dst.prepareStatement("INSERT INTO migration_verify_diffs(task_name, id, kind) VALUES (?, ?, ?)")) {
+            for (Difference difference : differences) {
+                insert.setString(1, config.taskName());
+                insert.setString(2, difference.id());
+                insert.setString(3, difference.kind().name().toLowerCase());
+                insert.addBatch();
+            }
+            insert.executeBatch();
+            dst.commit();
+        } catch (Exception e) {
+            dst.rollback();
+            throw e;
+        } finally {
+            dst.setAutoCommit(true);
+        }
+    }
+
+    private void repair(Connection src, Connection dst, Partition partition, List<Difference> differences) throws Exception {
+        MigrationMetrics metrics = new MigrationMetrics(config.taskName(), String.valueOf(partition.number()));
+        try (DeltaWriter writer = new DeltaWriter(src, dst, config, config.taskName() + "_verify_" + partition.number(), metrics)) {
+            List<String> copy = new ArrayList<>();
+            List<String> delete = new ArrayList<>();
+            for (Difference difference : differences) {
+                (difference.kind() == Kind.EXTRA ? delete : copy).add(difference.id());
+                if (copy.size() >= config.batchSize()) {
+                    writer.upsert(copy);
+                    copy.clear();
+                }
+                if (delete.size() >= config.batchSize()) {
+                    writer.delete(delete);
+                    delete.clear();
+                }
+            }
+            writer.upsert(copy);
+            writer.delete(delete);
+        }
+    }
+}
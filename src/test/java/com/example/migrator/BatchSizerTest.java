@@ -0,0 +1,63 @@
+package com.example.migrator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchSizerTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    void fastBatchesGrowUpToMaxAndSlowOnesHalve() {
+        BatchSizer sizer = new BatchSizer(1000, 100, 2100, 500, "test", "");
+        for (int i = 0; i < 100; i++) {
+            // constant per-row cost, so throughput never drops as batches grow
+            sizer.record(sizer.size(), sizer.size() * 100_000L);
+        }
+        assertEquals(2100, sizer.size());
+
+        sizer.record(2100, 900 * MS);
+        assertEquals(1050, sizer.size());
+        for (int i = 0; i < 10; i++) {
+            sizer.record(sizer.size(), 5_000 * MS);
+        }
+        assertEquals(100, sizer.size());
+    }
+
+    @Test
+    void increaseThatLowersThroughputIsTakenBack() {
+        BatchSizer sizer = new BatchSizer(1000, 100, 2100, 500, "test", "");
+        sizer.record(1000, 100 * MS);
+        assertEquals(1100, sizer.size());
+
+        sizer.record(1100, 200 * MS);
+        assertEquals(1000, sizer.size());
+        assertEquals(1000, BatchSizer.batchSizeGauge.labels("test", "").get());
+
+        // the rejected size is not probed again, so the size settles instead of flipping
+        for (int i = 0; i < 10; i++) {
+            sizer.record(1000, 100 * MS);
+            assertEquals(1000, sizer.size());
+        }
+
+        // a slow batch starts the search over
+        sizer.record(1000, 900 * MS);
+        assertEquals(500, sizer.size());
+        sizer.record(500, 50 * MS);
+        sizer.record(600, 60 * MS);
+        sizer.record(700, 70 * MS);
+        sizer.record(800, 80 * MS);
+        sizer.record(900, 90 * MS);
+        sizer.record(1000, 100 * MS);
+        assertEquals(1100, sizer.size());
+    }
+
+    @Test
+    void sizeStaysFixedWithoutTargetLatency() {
+        BatchSizer sizer = new BatchSizer(1000, 100, 2100, 0, "test", "");
+        sizer.record(1000, MS);
+        sizer.record(1000, 10_000 * MS);
+        assertEquals(1000, sizer.size());
+    }
+}
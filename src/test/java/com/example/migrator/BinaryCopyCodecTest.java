@@ -0,0 +1,64 @@
+package com.example.migrator;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryCopyCodecTest {
+
+    private static final String LOCALE = "C";
+
+    @Test
+    void convertsMismatchedColumnsAndKeepsTheRest() throws Exception {
+        try (EmbeddedPostgres pg = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             Connection c = DriverManager.getConnection(pg.getJdbcUrl("postgres", "postgres"), "postgres", "postgres");
+             Statement st = c.createStatement()) {
+            st.execute("CREATE TABLE src(a int4, b timestamp, c float4, d text, e numeric)");
+            st.execute("CREATE TABLE dst(a int8, b date, c float8, d varchar(10), e numeric)");
+            st.execute("INSERT INTO src VALUES (1, '2015-03-04 23:59:59', 1.5, 'x', 12.345), " +
+                    "(-7, '1999-12-31 00:00:01', null, null, null), (2, 'infinity', 0, '', -1)");
+
+            BinaryCopyCodec codec = BinaryCopyCodec.between(c, "SELECT a, b, c, d, e FROM src", c, "dst", "a, b, c, d, e");
+            assertNotNull(codec);
+
+            CopyManager copy = c.unwrap(PGConnection.class).getCopyAPI();
+            var out = new ByteArrayOutputStream();
+            copy.copyOut("COPY src TO STDOUT WITH (FORMAT BINARY)", out);
+            copy.copyIn("COPY dst FROM STDIN WITH (FORMAT BINARY)", new ByteArrayInputStream(codec.convert(out.toByteArray())));
+
+            try (ResultSet rs = st.executeQuery("SELECT count(*) FROM dst d JOIN src s ON s.a = d.a " +
+                    "WHERE d.b IS NOT DISTINCT FROM s.b::date AND d.c IS NOT DISTINCT FROM s.c::float8 " +
+                    "AND d.d IS NOT DISTINCT FROM s.d AND d.e IS NOT DISTINCT FROM s.e")) {
+                assertTrue(rs.next());
+                assertEquals(3, rs.getInt(1));
+            }
+        }
+    }
+
+    @Test
+    void matchingTypesNeedNoCodec() throws Exception {
+        try (EmbeddedPostgres pg = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             Connection c = DriverManager.getConnection(pg.getJdbcUrl("postgres", "postgres"), "postgres", "postgres");
+             Statement st = c.createStatement()) {
+            st.execute("CREATE TABLE person(id text primary key, birthday date)");
+            st.execute("CREATE TABLE kids(id varchar(20) primary key, birthday date)");
+
+            assertNull(BinaryCopyCodec.between(c, "SELECT id, birthday FROM person", c, "kids", "id, birthday"));
+        }
+    }
+
+    @Test
+    void unsupportedConversionFailsUpFront() {
+        assertThrows(IllegalArgumentException.class, () -> BinaryCopyCodec.converter("text", "date"));
+    }
+}
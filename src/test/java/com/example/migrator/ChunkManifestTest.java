@@ -0,0 +1,30 @@
+package com.example.migrator;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkManifestTest {
+
+    @Test
+    void boundsSurviveEscapingAndTornLinesAreDropped() throws Exception {
+        Path dir = Files.createTempDirectory("manifest");
+        Map<String, String> header = Map.of("format", ChunkManifest.FORMAT, "filter", "name <> 'a\tb'");
+        ChunkManifest manifest = ChunkManifest.open(dir, header);
+        manifest.append(new ChunkManifest.Chunk(1, null, "a\\N\tb\nc", 10, 100, 0xfedcba9876543210L));
+        Files.writeString(dir.resolve(ChunkManifest.FILE), Files.readString(dir.resolve(ChunkManifest.FILE)) + "chunk\t2\t");
+
+        manifest = ChunkManifest.open(dir, header);
+        assertEquals(1, manifest.chunks().size());
+        assertEquals(new ChunkManifest.Chunk(1, null, "a\\N\tb\nc", 10, 100, 0xfedcba9876543210L), manifest.chunks().get(0));
+        manifest.complete();
+        assertTrue(ChunkManifest.read(dir).isComplete());
+        assertNull(ChunkManifest.unescape("\\N"));
+        assertEquals("\\N", ChunkManifest.unescape(ChunkManifest.escape("\\N")));
+        assertThrows(IllegalStateException.class, () -> ChunkManifest.open(dir, Map.of("format", "other")));
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.migrator;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CopyCsvTest {
+
+    private static String reencode(String csv) {
+        CopyBuffer out = new CopyBuffer(0);
+        CopyCsv.reencode(CopyBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)), out, new CopyCsv.Cursor());
+        return new String(out.array(), 0, out.size(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void keepsNullsEmptyStringsAndEscapes() {
+        assertEquals("1,2015-06-01\n", reencode("1,2015-06-01\n"));
+        assertEquals("1,\n", reencode("1,\n"));
+        assertEquals("1,\"\"\n", reencode("1,\"\"\n"));
+        assertEquals("\"a,b\",\"say \"\"hi\"\"\"\n", reencode("\"a,b\",\"say \"\"hi\"\"\"\n"));
+        assertEquals("\"two\nlines\",x\n", reencode("\"two\nlines\",x\n"));
+        assertEquals("\"\\.\"\n", reencode("\"\\.\"\n"));
+        // quotes that are not needed are dropped, CRLF becomes LF
+        assertEquals("plain,ü\nnext,\n", reencode("\"plain\",ü\r\nnext,"));
+    }
+
+    @Test
+    void cursorReportsFieldsInPlace() {
+        byte[] data = "id-1,\"x\"\"y\",\n".getBytes(StandardCharsets.UTF_8);
+        CopyCsv.Cursor cursor = new CopyCsv.Cursor().reset(data, data.length);
+        assertTrue(cursor.nextRecord());
+        List<String> fields = new ArrayList<>();
+        while (cursor.nextField()) {
+            fields.add(cursor.isNull() ? null : (cursor.quoted() ? "q:" : "") + new String(data, cursor.start(), cursor.end() - cursor.start()));
+        }
+        assertEquals(Arrays.asList("id-1", "q:x\"\"y", null), fields);
+        assertFalse(cursor.nextRecord());
+        assertThrows(IllegalArgumentException.class, () -> reencode("\"open"));
+    }
+
+    @Test
+    void reencodingWarmBuffersAllocatesAlmostNothing() {
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            rows.append(String.format("%08d", i)).append(i % 7 == 0 ? ",\"a,b\"\n" : ",2015-06-01\n");
+        }
+        CopyBuffer in = CopyBuffer.wrap(rows.toString().getBytes(StandardCharsets.UTF_8));
+        CopyBuffer.Pool pool = new CopyBuffer.Pool(1, 1024);
+        CopyCsv.Cursor cursor = new CopyCsv.Cursor();
+        for (int i = 0; i < 20; i++) {
+            CopyBuffer out = pool.acquire();
+            CopyCsv.reencode(in, out, cursor);
+            pool.release(out);
+        }
+
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        CopyBuffer out = pool.acquire();
+        CopyCsv.reencode(in, out, cursor);
+        pool.release(out);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(allocated < 1024, "allocated " + allocated + " bytes for 10000 rows");
+    }
+}
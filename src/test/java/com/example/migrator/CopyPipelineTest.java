@@ -0,0 +1,89 @@
+package com.example.migrator;
+
+import io.prometheus.client.CollectorRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CopyPipelineTest {
+
+    @Test
+    void batchesReachWriterInOrderThroughTransform() throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        List<String> written = new ArrayList<>();
+
+        new CopyPipeline("test", new MigrationMetrics("pipelined", "3"), 2).run(
+                () -> {
+                    int i = next.incrementAndGet();
+                    return i > 50 ? null : new CopyPipeline.Batch(String.valueOf(i), CopyBuffer.wrap(new byte[]{(byte) i}));
+                },
+                batch -> new CopyPipeline.Batch(batch.lastId() + "!", batch.data()),
+                batch -> written.add(batch.lastId()));
+
+        assertEquals(50, written.size());
+        assertEquals("1!", written.get(0));
+        assertEquals("50!", written.get(49));
+        assertEquals(0.0, CollectorRegistry.defaultRegistry.getSampleValue("migrator_pipeline_queue_depth",
+                new String[]{"task", "partition", "queue"}, new String[]{"pipelined", "3", "transformed"}));
+    }
+
+    @Test
+    void readerFailureIsRethrownAfterEarlierBatchesAreWritten() {
+        AtomicInteger next = new AtomicInteger();
+        List<String> written = new ArrayList<>();
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> new CopyPipeline("test", MigrationMetrics.forTask("test"), 2).run(
+                () -> {
+                    int i = next.incrementAndGet();
+                    if (i == 4) {
+                        throw new IllegalStateException("source gone");
+                    }
+                    return new CopyPipeline.Batch(String.valueOf(i), CopyBuffer.wrap(new byte[0]));
+                },
+                null,
+                batch -> written.add(batch.lastId())));
+
+        assertEquals("source gone", e.getMessage());
+        assertEquals(List.of("1", "2", "3"), written);
+    }
+
+    @Test
+    void writerFailureStopsReader() {
+        AtomicInteger reads = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> new CopyPipeline("test", MigrationMetrics.forTask("test"), 2).run(
+                () -> new CopyPipeline.Batch(String.valueOf(reads.incrementAndGet()), CopyBuffer.wrap(new byte[0])),
+                batch -> batch,
+                batch -> {
+                    throw new IllegalStateException("target gone");
+                }));
+
+        int readsAfterFailure = reads.get();
+        assertTrue(readsAfterFailure <= 6, "reader ran ahead by " + readsAfterFailure);
+    }
+
+    @Test
+    void transformFailureStopsReaderInsteadOfHanging() {
+        AtomicInteger reads = new AtomicInteger();
+        List<String> written = new ArrayList<>();
+
+        IllegalStateException e = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(IllegalStateException.class,
+                () -> new CopyPipeline("test", MigrationMetrics.forTask("test"), 2).run(
+                        () -> new CopyPipeline.Batch(String.valueOf(reads.incrementAndGet()), CopyBuffer.wrap(new byte[0])),
+                        batch -> {
+                            if (batch.lastId().equals("3")) {
+                                throw new IllegalStateException("bad batch");
+                            }
+                            return batch;
+                        },
+                        batch -> written.add(batch.lastId()))));
+
+        assertEquals("bad batch", e.getMessage());
+        assertEquals(List.of("1", "2"), written);
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.migrator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdSetTest {
+
+    @Test
+    void numericIdsAreStoredAsLongsAndLookedUpDirectly() {
+        IdSet.Builder builder = IdSet.builder();
+        for (int i = 0; i < 5000; i++) {
+            builder.add(String.valueOf(i * 7 - 100));
+        }
+        IdSet ids = builder.build();
+
+        assertTrue(ids.isNumeric());
+        assertEquals(5000, ids.size());
+        assertEquals("-100", ids.get(0));
+        assertEquals(2000, ids.indexOf(String.valueOf(2000 * 7 - 100)));
+        assertFalse(ids.contains("1"));
+        assertTrue(ids.contains("5"));
+        assertFalse(ids.contains("05"));
+        assertEquals(List.of("34886", "34893"), ids.subList(4998, 5000));
+    }
+
+    @Test
+    void nonCanonicalNumberSwitchesToStrings() {
+        IdSet ids = IdSet.copyOf(List.of("1", "2", "007", "x"));
+
+        assertFalse(ids.isNumeric());
+        assertEquals(List.of("1", "2", "007", "x"), ids);
+        assertEquals(2, ids.indexOf("007"));
+        assertEquals(-1, ids.indexOf("7"));
+    }
+
+    @Test
+    void parsesOnlyIdsThatPrintBackTheSame() {
+        assertEquals(Long.MAX_VALUE, IdSet.parseCanonical(Long.toString(Long.MAX_VALUE)));
+        assertEquals(-42, IdSet.parseCanonical("-42"));
+        assertEquals(0, IdSet.parseCanonical("0"));
+        for (String id : List.of("", "-", "-0", "00", "+1", "1e3", " 1", "9223372036854775808", "99999999999999999999")) {
+            assertEquals(Long.MIN_VALUE, IdSet.parseCanonical(id), id);
+        }
+        IdSet ids = IdSet.copyOf(List.of(Long.toString(Long.MIN_VALUE), "5"));
+        assertTrue(ids.isNumeric());
+        assertEquals(0, ids.indexOf(Long.toString(Long.MIN_VALUE)));
+    }
+}
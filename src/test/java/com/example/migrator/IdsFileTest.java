@@ -0,0 +1,56 @@
+package com.example.migrator;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdsFileTest {
+
+    @Test
+    void sortedFileIsSearchedAndResumedWithoutLoadingIt() throws Exception {
+        List<String> expected = new ArrayList<>();
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String id = String.format("%06d", i * 3);
+            expected.add(id);
+            content.append(id).append(i % 7 == 0 ? "\r\n\n  \n" : "\n");
+        }
+        Path tmp = Files.createTempFile("ids", ".txt");
+        Files.writeString(tmp, content);
+
+        IdsFile ids = IdsFile.open(tmp);
+        assertTrue(ids.isSorted());
+        assertEquals(expected, ids);
+        assertEquals(expected.get(IdsFile.BLOCK + 5), ids.get(IdsFile.BLOCK + 5));
+        assertEquals(700, ids.indexOf("002100"));
+        assertEquals(-1, ids.indexOf("002101"));
+        assertEquals(-1, ids.indexOf(""));
+        assertEquals(expected.subList(701, 1000), ids.subList(ids.indexOf("002100") + 1, ids.size()));
+    }
+
+    @Test
+    void unsortedFileFallsBackToScanning() throws Exception {
+        Path tmp = Files.createTempFile("ids", ".txt");
+        Files.write(tmp, List.of("b", "a", "", "c"));
+
+        IdsFile ids = IdsFile.open(tmp);
+        assertFalse(ids.isSorted());
+        assertEquals(List.of("b", "a", "c"), ids);
+        assertEquals(1, ids.indexOf("a"));
+    }
+
+    @Test
+    void emptyFileHasNoIds() throws Exception {
+        Path tmp = Files.createTempFile("ids", ".txt");
+
+        IdsFile ids = IdsFile.open(tmp);
+        assertTrue(ids.isEmpty());
+        assertEquals(-1, ids.indexOf("a"));
+        assertFalse(ids.iterator().hasNext());
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.migrator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MergeLoaderTest {
+
+    @Test
+    void stageTablesOfDifferentWorkersNeverCollide() {
+        String dashed = MergeLoader.stageTableName("kids", "a-b");
+        String underscored = MergeLoader.stageTableName("kids", "a_b");
+        assertTrue(dashed.startsWith("kids_stage_a_b_"));
+        assertNotEquals(dashed, underscored);
+
+        String longTask = "nightly_migration_of_the_whole_customer_database_partition_";
+        String first = MergeLoader.stageTableName("kids", longTask + "1");
+        String second = MergeLoader.stageTableName("kids", longTask + "2");
+        assertNotEquals(first, second);
+        assertTrue(first.length() <= 63);
+        assertTrue(second.length() <= 63);
+
+        assertEquals(dashed, MergeLoader.stageTableName("kids", "a-b"));
+    }
+}
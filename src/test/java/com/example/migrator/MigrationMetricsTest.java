@@ -0,0 +1,32 @@
+package com.example.migrator;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MigrationMetricsTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void rateFallsToZeroDuringAStall() {
+        MigrationMetrics metrics = new MigrationMetrics("stall-test", "");
+        long start = System.nanoTime();
+        metrics.rows(600);
+
+        // a scrape reads the rate as of now, not as of the last batch
+        assertTrue(MigrationMetrics.rowsPerSecond.labels("stall-test", "").get() > 0);
+        assertEquals(20.0, metrics.rate(start + 30 * SECOND), 0.5);
+        // nothing finished for longer than the window
+        assertEquals(0.0, metrics.rate(start + (MigrationMetrics.WINDOW_SECONDS + 1) * SECOND));
+    }
+
+    @Test
+    void speedIsKeptPerTaskAndPartition() {
+        new MigrationMetrics("speed-test", "0").speed(100);
+        new MigrationMetrics("speed-test", "1").speed(250);
+
+        assertEquals(100.0, MigrationMetrics.speedGauge.labels("speed-test", "0").get());
+        assertEquals(250.0, MigrationMetrics.speedGauge.labels("speed-test", "1").get());
+    }
+}
@@ -4,10 +4,19 @@ import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
 import org.junit.jupiter.api.Test;
 import io.prometheus.client.CollectorRegistry;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -37,9 +46,11 @@ public class MigrationServiceEmbeddedPostgresTest {
 
             Config cfg = new Config(srcUrl, "postgres", "postgres", dstUrl, "postgres", "postgres", 10, "task", null, "copy");
             MigrationService service = new CopyMigrationService(cfg);
+            // the counter is shared by every test in the JVM, so compare against its value before the run
+            Double before = CollectorRegistry.defaultRegistry.getSampleValue("migrator_processed_total");
             service.run();
             Double processed = CollectorRegistry.defaultRegistry.getSampleValue("migrator_processed_total");
-            assertEquals(2.0, processed);
+            assertEquals(2.0, processed - (before == null ? 0 : before));
 
             try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
                  Statement st = c.createStatement();
@@ -118,4 +129,1017 @@ public class MigrationServiceEmbeddedPostgresTest {
             }
         }
     }
+
+    @Test
+    void streamingCopyCopiesRowsThroughSmallBuffer() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, current_date - interval '10 years' FROM generate_series(1, 5000) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+            }
+
+            Config cfg = config(srcUrl, dstUrl, 2000, "copyMode", "stream", "streamBufferSize", "1024");
+            new CopyMigrationService(cfg).run();
+
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT count(*), max(birthday) = (current_date - interval '10 years')::date FROM kids")) {
+                assertTrue(rs.next());
+                assertEquals(5000, rs.getInt(1));
+                assertTrue(rs.getBoolean(2));
+            }
+        }
+    }
+
+    @Test
+    void keysetExtractionResumesFromSavedProgress() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            int expected;
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, current_date - interval '10 years' FROM generate_series(1, 1000) g");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, current_date - interval '20 years' FROM generate_series(1001, 2000) g");
+                try (ResultSet rs = st.executeQuery("SELECT count(*) FROM person WHERE id > '500' AND birthday > current_date - interval '18 years'")) {
+                    rs.next();
+                    expected = rs.getInt(1);
+                }
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+                st.execute("CREATE TABLE migration_progress (task_name text primary key, last_id text)");
+                st.execute("INSERT INTO migration_progress VALUES ('task', '500')");
+            }
+
+            Config cfg = config(srcUrl, dstUrl, 70, "extractMode", "keyset", "copyMode", "stream");
+            new CopyMigrationService(cfg).run();
+
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT count(*), min(id) > '500', (SELECT last_id FROM migration_progress) FROM kids")) {
+                assertTrue(rs.next());
+                assertEquals(expected, rs.getInt(1));
+                assertTrue(rs.getBoolean(2));
+                assertEquals("999", rs.getString(3));
+            }
+        }
+    }
+
+    @Test
+    void parallelMigrationCopiesEveryPartitionAndResumes() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, current_date - interval '10 years' FROM generate_series(1, 3000) g");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, current_date - interval '30 years' FROM generate_series(3001, 4000) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+            }
+
+            Config cfg = config(srcUrl, dstUrl, 200, "impl", "parallel", "parallelism", "3", "partitions", "5", "copyMode", "stream");
+            new ParallelMigrationService(cfg).run();
+            // a second run finds every partition finished and copies nothing
+            new ParallelMigrationService(cfg).run();
+
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                try (ResultSet rs = st.executeQuery("SELECT count(*) FROM kids")) {
+                    assertTrue(rs.next());
+                    assertEquals(3000, rs.getInt(1));
+                }
+                try (ResultSet rs = st.executeQuery("SELECT count(*) FROM migration_progress WHERE task_name LIKE 'task#%'")) {
+                    assertTrue(rs.next());
+                    assertEquals(5, rs.getInt(1));
+                }
+            }
+        }
+    }
+
+    @Test
+    void parallelWorkersReadFromExportedSnapshot() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT lpad(g::text, 4, '0'), current_date - interval '10 years' FROM generate_series(1, 2000) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+            }
+
+            Config cfg = config(srcUrl, dstUrl, 200, "impl", "parallel", "parallelism", "3", "partitions", "4",
+                    "consistentSnapshot", "true");
+            try (Connection coordinator = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Connection writer = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = coordinator.createStatement();
+                 Statement changes = writer.createStatement()) {
+                coordinator.setAutoCommit(false);
+                coordinator.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                String snapshot;
+                try (ResultSet rs = st.executeQuery("SELECT pg_export_snapshot()")) {
+                    assertTrue(rs.next());
+                    snapshot = rs.getString(1);
+                }
+                // changes committed after the export must not reach the target
+                changes.execute("DELETE FROM person WHERE id <= '0100'");
+                changes.execute("INSERT INTO person(id, birthday) SELECT lpad(g::text, 4, '0'), current_date - interval '10 years' FROM generate_series(2001, 2500) g");
+                new ParallelMigrationService(cfg).run(snapshot);
+                coordinator.rollback();
+            }
+
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT count(*), min(id), max(id) FROM kids")) {
+                assertTrue(rs.next());
+                assertEquals(2000, rs.getInt(1));
+                assertEquals("0001", rs.getString(2));
+                assertEquals("2000", rs.getString(3));
+            }
+        }
+    }
+
+    @Test
+    void pipelinedCopyLoadsAllBatches() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, current_date - interval '10 years' FROM generate_series(1, 3000) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+            }
+
+            new CopyMigrationService(config(srcUrl, dstUrl, 250, "pipelineDepth", "2")).run();
+
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT count(*), (SELECT last_id FROM migration_progress) FROM kids")) {
+                assertTrue(rs.next());
+                assertEquals(3000, rs.getInt(1));
+                assertEquals("999", rs.getString(2));
+            }
+            assertThrows(IllegalArgumentException.class, () -> new CopyMigrationService(
+                    config(srcUrl, dstUrl, 250, "pipelineDepth", "2", "copyMode", "stream", "taskName", "streamed")).run());
+        }
+    }
+
+    @Test
+    void binaryCopyConvertsTimestampToDate() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday timestamp)");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, date '2015-06-01' + g * interval '1 hour' FROM generate_series(1, 1000) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+            }
+
+            new CopyMigrationService(config(srcUrl, dstUrl, 300, "copyMode", "binary", "extractMode", "keyset")).run();
+
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT count(*), min(birthday), max(birthday) FROM kids")) {
+                assertTrue(rs.next());
+                assertEquals(1000, rs.getInt(1));
+                assertEquals("2015-06-01", rs.getString(2));
+                assertEquals("2015-07-12", rs.getString(3));
+            }
+        }
+    }
+
+    @Test
+    void failedBatchRollsBackItsCheckpointWithTheData() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT lpad(g::text, 4, '0'), current_date - interval '10 years' FROM generate_series(1, 500) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+                st.execute("INSERT INTO kids VALUES ('0250', null)");
+            }
+
+            Config cfg = config(srcUrl, dstUrl, 100, "extractMode", "keyset", "copyMode", "stream");
+            assertThrows(Exception.class, () -> new CopyMigrationService(cfg).run());
+
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT count(*), (SELECT last_id FROM migration_progress) FROM kids")) {
+                assertTrue(rs.next());
+                assertEquals(201, rs.getInt(1));
+                assertEquals("0200", rs.getString(2));
+            }
+        }
+    }
+
+    @Test
+    void mergeLoadRerunsOverExistingRows() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, current_date - interval '10 years' FROM generate_series(1, 1000) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+                st.execute("INSERT INTO kids(id, birthday) SELECT g::text, date '2000-01-01' FROM generate_series(1, 300) g");
+            }
+
+            Config cfg = config(srcUrl, dstUrl, 200, "loadMode", "merge", "extractMode", "keyset", "copyMode", "stream");
+            new CopyMigrationService(cfg).run();
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("DELETE FROM migration_progress");
+            }
+            new CopyMigrationService(cfg).run();
+
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT count(*), count(*) FILTER (WHERE birthday = date '2000-01-01'), " +
+                         "to_regclass('" + MergeLoader.stageTableName("kids", "task") + "') IS NULL FROM kids")) {
+                assertTrue(rs.next());
+                assertEquals(1000, rs.getInt(1));
+                assertEquals(0, rs.getInt(2));
+                assertTrue(rs.getBoolean(3));
+            }
+        }
+    }
+
+    @Test
+    void bulkLoadRestoresDeferredIndexesAfterFailedRun() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, date '2015-06-01' FROM generate_series(1, 500) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE calendar(day date primary key)");
+                st.execute("INSERT INTO calendar VALUES (date '2015-06-01')");
+                st.execute("CREATE TABLE kids(id text primary key, birthday date REFERENCES calendar(day))");
+                st.execute("CREATE INDEX kids_birthday_idx ON kids(birthday)");
+            }
+
+            Config cfg = config(srcUrl, dstUrl, 100, "bulkLoad", "true");
+            assertThrows(IllegalStateException.class, () -> new BulkLoadMigrationService(cfg, loadCfg -> () -> {
+                try (Connection c = DriverManager.getConnection(loadCfg.targetUrl(), "postgres", "postgres");
+                     Statement st = c.createStatement();
+                     ResultSet rs = st.executeQuery("SHOW synchronous_commit")) {
+                    assertTrue(rs.next());
+                    assertEquals("off", rs.getString(1));
+                }
+                throw new IllegalStateException("load failed");
+            }).run());
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT count(*), to_regclass('kids_birthday_idx') IS NULL FROM migration_deferred_ddl")) {
+                assertTrue(rs.next());
+                assertEquals(2, rs.getInt(1));
+                assertTrue(rs.getBoolean(2));
+            }
+
+            new BulkLoadMigrationService(cfg, MigrationApp::create).run();
+
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT (SELECT count(*) FROM kids), (SELECT count(*) FROM migration_deferred_ddl), " +
+                         "to_regclass('kids_birthday_idx') IS NOT NULL, " +
+                         "(SELECT count(*) FROM pg_constraint WHERE conrelid = 'kids'::regclass AND contype = 'f')")) {
+                assertTrue(rs.next());
+                assertEquals(500, rs.getInt(1));
+                assertEquals(0, rs.getInt(2));
+                assertTrue(rs.getBoolean(3));
+                assertEquals(1, rs.getInt(4));
+            }
+        }
+    }
+
+    @Test
+    void bulkLoadDefersTheDdlOfEveryTableJobOnly() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE customers(id int primary key, name text)");
+                st.execute("CREATE TABLE orders(id int primary key, customer_id int)");
+                st.execute("INSERT INTO customers SELECT g, 'c' || g FROM generate_series(1, 100) g");
+                st.execute("INSERT INTO orders SELECT g, g % 100 + 1 FROM generate_series(1, 400) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+                st.execute("CREATE INDEX kids_birthday_idx ON kids(birthday)");
+                st.execute("CREATE TABLE customers(id int primary key, name text)");
+                st.execute("CREATE INDEX customers_name_idx ON customers(name)");
+                st.execute("CREATE TABLE orders(id int primary key, customer_id int references customers)");
+                st.execute("CREATE INDEX orders_customer_idx ON orders(customer_id)");
+            }
+
+            Config cfg = config(srcUrl, dstUrl, 100, "impl", "tables", "bulkLoad", "true",
+                    "tables", "customers, orders",
+                    "table.customers.columns", "id, name",
+                    "table.orders.columns", "id, customer_id");
+            assertThrows(IllegalStateException.class, () -> new BulkLoadMigrationService(cfg, loadCfg -> () -> {
+                throw new IllegalStateException("load failed");
+            }).run());
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT string_agg(table_name || '.' || object_name, ', ' ORDER BY table_name, object_name), " +
+                         "to_regclass('kids_birthday_idx') IS NOT NULL FROM migration_deferred_ddl")) {
+                assertTrue(rs.next());
+                assertEquals("customers.customers_name_idx, orders.orders_customer_id_fkey, orders.orders_customer_idx", rs.getString(1));
+                assertTrue(rs.getBoolean(2));
+            }
+
+            new BulkLoadMigrationService(cfg, MigrationApp::create).run();
+
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT (SELECT count(*) FROM orders), (SELECT count(*) FROM migration_deferred_ddl), " +
+                         "to_regclass('customers_name_idx') IS NOT NULL AND to_regclass('orders_customer_idx') IS NOT NULL, " +
+                         "(SELECT count(*) FROM pg_constraint WHERE conrelid = 'orders'::regclass AND contype = 'f')")) {
+                assertTrue(rs.next());
+                assertEquals(400, rs.getInt(1));
+                assertEquals(0, rs.getInt(2));
+                assertTrue(rs.getBoolean(3));
+                assertEquals(1, rs.getInt(4));
+            }
+        }
+    }
+
+    @Test
+    void simpleAndCopyServicesRecordStageMetricsPerTask() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, current_date - interval '10 years' FROM generate_series(1, 300) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+            }
+
+            new CopyMigrationService(config(srcUrl, dstUrl, 100, "taskName", "metricsCopy")).run();
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("TRUNCATE kids");
+            }
+            new SimpleMigrationService(config(srcUrl, dstUrl, 100, "taskName", "metricsSimple")).run();
+
+            CollectorRegistry registry = CollectorRegistry.defaultRegistry;
+            String[] stageLabels = {"task", "partition", "stage"};
+            assertEquals(3.0, registry.getSampleValue("migrator_batch_stage_seconds_count", stageLabels,
+                    new String[]{"metricsCopy", "", "commit"}));
+            assertEquals(3.0, registry.getSampleValue("migrator_batch_stage_seconds_count", stageLabels,
+                    new String[]{"metricsSimple", "", "commit"}));
+            assertTrue(registry.getSampleValue("migrator_bytes_total", new String[]{"task", "partition", "direction"},
+                    new String[]{"metricsCopy", "", "in"}) > 0);
+            assertTrue(registry.getSampleValue("migrator_rows_per_second", new String[]{"task", "partition"},
+                    new String[]{"metricsSimple", ""}) > 0);
+        }
+    }
+
+    @Test
+    void distributedPodsShareChunksAndTakeOverAbandonedOnes() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT lpad(g::text, 4, '0'), current_date - interval '10 years' FROM generate_series(1, 2000) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+                ChunkQueue queue = new ChunkQueue(c, "task", 1);
+                queue.ensureTable();
+                queue.planIfEmpty(() -> List.of(new Partition(0, null, "0500"), new Partition(1, "0500", "1000"),
+                        new Partition(2, "1000", "1500"), new Partition(3, "1500", null)));
+                assertEquals(0, queue.claim("dead-pod").number());
+            }
+            Thread.sleep(1500);
+
+            Config cfg = config(srcUrl, dstUrl, 100, "impl", "distributed", "parallelism", "2", "copyMode", "stream");
+            ExecutorService pods = Executors.newFixedThreadPool(2);
+            try {
+                Future<?> first = pods.submit(() -> {
+                    new DistributedMigrationService(cfg).run();
+                    return null;
+                });
+                Future<?> second = pods.submit(() -> {
+                    new DistributedMigrationService(cfg).run();
+                    return null;
+                });
+                first.get();
+                second.get();
+            } finally {
+                pods.shutdownNow();
+            }
+
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT (SELECT count(*) FROM kids), " +
+                         "(SELECT count(*) FROM migration_chunks WHERE status = 'done' AND owner <> 'dead-pod')")) {
+                assertTrue(rs.next());
+                assertEquals(2000, rs.getInt(1));
+                assertEquals(4, rs.getInt(2));
+            }
+        }
+    }
+
+    @Test
+    void stalledPodCannotCommitIntoAChunkTakenOver() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT lpad(g::text, 4, '0'), current_date - interval '10 years' FROM generate_series(1, 500) g");
+            }
+            Config cfg = config(srcUrl, dstUrl, 100, "impl", "distributed");
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Connection srcConn = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Connection stalledConn = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Connection takerConn = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+                new ProgressStore(c).ensureTable();
+                ChunkQueue queue = new ChunkQueue(c, "task", 60);
+                queue.ensureTable();
+                queue.planIfEmpty(() -> List.of(new Partition(0, null, null)));
+                Partition chunk = queue.claim("stalled-pod");
+                st.execute("UPDATE migration_chunks SET lease_until = now() - interval '1 second'");
+                assertEquals(chunk, queue.claim("other-pod"));
+
+                CopyMigrationService stalled = new CopyMigrationService(cfg, null, batch -> queue.checkLease(batch, chunk, "stalled-pod"));
+                assertThrows(ChunkQueue.LeaseLostException.class, () -> stalled.migratePartition(srcConn, stalledConn, chunk, 500, System.nanoTime()));
+                assertEquals(0, count(dstUrl, "SELECT count(*) FROM kids"));
+                assertEquals(0, count(dstUrl, "SELECT count(*) FROM migration_progress"));
+
+                new CopyMigrationService(cfg, null, batch -> queue.checkLease(batch, chunk, "other-pod"))
+                        .migratePartition(srcConn, takerConn, chunk, 500, System.nanoTime());
+                assertEquals(500, count(dstUrl, "SELECT count(*) FROM kids"));
+            }
+        }
+    }
+
+    @Test
+    void incrementalSyncMovesOnlyTheDelta() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT lpad(g::text, 4, '0'), current_date - interval '10 years' FROM generate_series(1, 1000) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+            }
+
+            Config cfg = config(srcUrl, dstUrl, 100, "impl", "sync");
+            new IncrementalSyncService(cfg).run();
+            assertEquals(1000, count(dstUrl, "SELECT count(*) FROM kids"));
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("UPDATE person SET birthday = current_date - interval '30 years' WHERE id <= '0050'");
+                st.execute("UPDATE person SET birthday = current_date - interval '5 years' WHERE id > '0900'");
+                st.execute("DELETE FROM person WHERE id BETWEEN '0500' AND '0509'");
+                st.execute("INSERT INTO person(id, birthday) SELECT lpad(g::text, 4, '0'), current_date - interval '10 years' FROM generate_series(1001, 1200) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                // rows the source did not touch are not re-copied, so this drift survives the sync
+                st.execute("UPDATE kids SET birthday = date '2000-01-01' WHERE id = '0200'");
+            }
+            new IncrementalSyncService(cfg).run();
+
+            assertEquals(1140, count(dstUrl, "SELECT count(*) FROM kids"));
+            assertEquals(0, count(dstUrl, "SELECT count(*) FROM kids WHERE id <= '0050' OR id BETWEEN '0500' AND '0509'"));
+            assertEquals(100, count(dstUrl, "SELECT count(*) FROM kids WHERE id > '0900' AND id <= '1000' " +
+                    "AND birthday = current_date - interval '5 years'"));
+            assertEquals(1, count(dstUrl, "SELECT count(*) FROM kids WHERE birthday = date '2000-01-01'"));
+        }
+    }
+
+    @Test
+    void simpleAndSyncUseTheConfiguredTablesColumnsAndKey() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE members(member_no int primary key, joined date, active bool)");
+                st.execute("INSERT INTO members SELECT g, date '2020-01-01' + g, g % 4 <> 0 FROM generate_series(1, 400) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE roster(member_no int primary key, joined date)");
+                st.execute("CREATE TABLE roster_keyset(member_no int primary key, joined date)");
+            }
+
+            String[] members = {"sourceTable", "members", "sourceColumns", "member_no, joined", "keyColumn", "member_no",
+                    "sourceFilter", "active", "targetTable", "roster"};
+            new SimpleMigrationService(config(srcUrl, dstUrl, 70, members)).run();
+            assertEquals(300, count(dstUrl, "SELECT count(*) FROM roster"));
+            assertEquals(0, count(dstUrl, "SELECT count(*) FROM roster WHERE member_no % 4 = 0 OR joined <> date '2020-01-01' + member_no"));
+
+            new SimpleMigrationService(config(srcUrl, dstUrl, 70,
+                    append(members, "taskName", "keyset", "targetTable", "roster_keyset", "extractMode", "keyset"))).run();
+            assertEquals(300, count(dstUrl, "SELECT count(*) FROM roster_keyset"));
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("UPDATE members SET active = false WHERE member_no <= 10");
+                st.execute("UPDATE members SET joined = date '1999-01-01' WHERE member_no BETWEEN 101 AND 110");
+                st.execute("INSERT INTO members SELECT g, date '2020-01-01' + g, true FROM generate_series(401, 420) g");
+            }
+            Config sync = config(srcUrl, dstUrl, 70, append(members, "impl", "sync"));
+            new IncrementalSyncService(sync).run();
+            assertEquals(300 - 8 + 20, count(dstUrl, "SELECT count(*) FROM roster"));
+            assertEquals(0, count(dstUrl, "SELECT count(*) FROM roster WHERE member_no <= 10"));
+            assertEquals(8, count(dstUrl, "SELECT count(*) FROM roster WHERE joined = date '1999-01-01'"));
+
+            assertThrows(IllegalArgumentException.class, () -> new IncrementalSyncService(
+                    config(srcUrl, dstUrl, 70, append(members, "transforms", "require:joined"))));
+            assertThrows(IllegalArgumentException.class, () -> new SimpleMigrationService(
+                    config(srcUrl, dstUrl, 70, append(members, "targetColumns", "no, joined_on"))));
+            assertThrows(IllegalArgumentException.class, () -> new SimpleMigrationService(
+                    config(srcUrl, dstUrl, 70, append(members, "sourceColumns", "joined"))));
+        }
+    }
+
+    private static String[] append(String[] options, String... more) {
+        String[] all = Arrays.copyOf(options, options.length + more.length);
+        System.arraycopy(more, 0, all, options.length, more.length);
+        return all;
+    }
+
+    @Test
+    void xminWatermarkSurvivesWraparound() throws Exception {
+        long epoch = 1L << 32;
+        // the low 32 bits of a txid are what a row's xmin shows
+        assertTrue(IncrementalSyncService.xminComparable(epoch - 300, epoch + 5));
+        assertFalse(IncrementalSyncService.xminComparable(5, 5 + (1L << 31)));
+        assertFalse(IncrementalSyncService.xminComparable(epoch + 5, epoch - 300));
+
+        try (EmbeddedPostgres pg = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             Connection c = DriverManager.getConnection(pg.getJdbcUrl("postgres", "postgres"), "postgres", "postgres");
+             PreparedStatement ps = c.prepareStatement("SELECT " + IncrementalSyncService.XMIN_CHANGED +
+                     " FROM (VALUES (?::text::xid)) v(xmin)")) {
+            long[][] cases = {
+                    // watermark before the wrap: rows written on either side of it after the watermark changed
+                    {4294967000L, 4294967100L, 1}, {4294967000L, 100, 1}, {4294967000L, 4294966000L, 0},
+                    // watermark after the wrap: rows from the previous epoch did not change
+                    {5, 4294967000L, 0}, {5, 3, 0}, {5, 5, 1}, {5, 900, 1}};
+            for (long[] t : cases) {
+                ps.setLong(1, t[0]);
+                ps.setString(2, String.valueOf(t[1]));
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    assertEquals(t[2] == 1, rs.getBoolean(1), "xmin " + t[1] + " against watermark " + t[0]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void verifyFindsAndRepairsExactlyTheDifferingIds() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT lpad(g::text, 4, '0'), current_date - interval '10 years' FROM generate_series(1, 3000) g");
+                st.execute("ANALYZE person");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+            }
+            new CopyMigrationService(config(srcUrl, dstUrl, 500)).run();
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("DELETE FROM kids WHERE id IN ('0007', '2500')");
+                st.execute("UPDATE kids SET birthday = date '2000-01-01' WHERE id = '1234'");
+                st.execute("INSERT INTO kids VALUES ('1234a', current_date)");
+            }
+
+            new VerifyMigrationService(config(srcUrl, dstUrl, 50, "impl", "verify", "partitions", "3")).run();
+            assertEquals(2999, count(dstUrl, "SELECT count(*) FROM kids"));
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT string_agg(id || ':' || kind, ',' ORDER BY id) FROM migration_verify_diffs")) {
+                assertTrue(rs.next());
+                assertEquals("0007:missing,1234:changed,1234a:extra,2500:missing", rs.getString(1));
+            }
+
+            new VerifyMigrationService(config(srcUrl, dstUrl, 50, "impl", "verify", "partitions", "3", "verifyRepair", "true")).run();
+            new VerifyMigrationService(config(srcUrl, dstUrl, 50, "impl", "verify", "partitions", "3")).run();
+            assertEquals(3000, count(dstUrl, "SELECT count(*) FROM kids"));
+            assertEquals(0, count(dstUrl, "SELECT count(*) FROM migration_verify_diffs"));
+        }
+    }
+
+    @Test
+    void verifyMatchesRangesAcrossDifferentCollations() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            // mixed-case ids sort differently under ICU than byte-wise
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text COLLATE \"und-x-icu\" primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT CASE WHEN g % 2 = 0 THEN upper(left(md5(g::text), 6)) " +
+                        "ELSE left(md5(g::text), 6) END || g, current_date - interval '10 years' FROM generate_series(1, 3000) g");
+                st.execute("ANALYZE person");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+            }
+            new CopyMigrationService(config(srcUrl, dstUrl, 500)).run();
+            String deleted;
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("DELETE FROM kids WHERE id = (SELECT min(id) FROM kids WHERE id LIKE 'a%') RETURNING id")) {
+                assertTrue(rs.next());
+                deleted = rs.getString(1);
+            }
+
+            new VerifyMigrationService(config(srcUrl, dstUrl, 50, "impl", "verify", "partitions", "4")).run();
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT string_agg(id || ':' || kind, ',') FROM migration_verify_diffs")) {
+                assertTrue(rs.next());
+                assertEquals(deleted + ":missing", rs.getString(1));
+            }
+        }
+    }
+
+    @Test
+    void verifyComparesTheConfiguredTablesColumnsAndKey() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE members(member_no int primary key, joined date, active bool)");
+                st.execute("INSERT INTO members SELECT g, date '2020-01-01' + g, g % 4 <> 0 FROM generate_series(1, 2000) g");
+                st.execute("ANALYZE members");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE roster(member_no int primary key, joined date)");
+            }
+            String[] members = {"sourceTable", "members", "sourceColumns", "member_no, joined", "keyColumn", "member_no",
+                    "sourceFilter", "active", "targetTable", "roster", "partitions", "3"};
+            new SimpleMigrationService(config(srcUrl, dstUrl, 500, members)).run();
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("DELETE FROM roster WHERE member_no = 7");
+                st.execute("UPDATE roster SET joined = NULL WHERE member_no = 1234");
+                st.execute("INSERT INTO roster VALUES (12, date '2020-01-13')");
+            }
+
+            new VerifyMigrationService(config(srcUrl, dstUrl, 50, append(members, "impl", "verify"))).run();
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT string_agg(id || ':' || kind, ',' ORDER BY id) FROM migration_verify_diffs")) {
+                assertTrue(rs.next());
+                assertEquals("12:extra,1234:changed,7:missing", rs.getString(1));
+            }
+
+            new VerifyMigrationService(config(srcUrl, dstUrl, 50, append(members, "impl", "verify", "verifyRepair", "true"))).run();
+            new VerifyMigrationService(config(srcUrl, dstUrl, 50, append(members, "impl", "verify"))).run();
+            assertEquals(0, count(dstUrl, "SELECT count(*) FROM migration_verify_diffs"));
+            assertEquals(1500, count(dstUrl, "SELECT count(*) FROM roster WHERE joined = date '2020-01-01' + member_no"));
+        }
+    }
+
+    @Test
+    void transformsMapSourceColumnsOntoAnotherTable() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date, name text)");
+                st.execute("INSERT INTO person(id, birthday, name) SELECT lpad(g::text, 6, '0'), current_date - interval '10 years', " +
+                        "CASE WHEN g % 10 <> 0 THEN 'kid ' || g END FROM generate_series(1, 1000) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE children(child_id text primary key, name text, origin text)");
+            }
+
+            Config cfg = config(srcUrl, dstUrl, 100, "extractMode", "keyset", "pipelineDepth", "2",
+                    "sourceColumns", "id, name", "targetTable", "children", "targetColumns", "child_id, name, origin",
+                    "transforms", "rename:id=child_id; require:name; mask:child_id=3; constant:origin=person");
+            new CopyMigrationService(cfg).run();
+
+            assertEquals(900, count(dstUrl, "SELECT count(*) FROM children WHERE origin = 'person' AND child_id LIKE '***___'"));
+            assertEquals(1, count(dstUrl, "SELECT count(*) FROM children WHERE child_id = '***999' AND name = 'kid 999'"));
+        }
+    }
+
+    @Test
+    void tablesLoadParentsBeforeChildrenAndResumeEach() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE customers(id int primary key, name text)");
+                st.execute("CREATE TABLE orders(id int primary key, customer_id int, total int)");
+                st.execute("CREATE TABLE order_lines(id int primary key, order_id int, sku text)");
+                st.execute("CREATE TABLE notes(id int primary key, body text)");
+                st.execute("INSERT INTO customers SELECT g, 'c' || g FROM generate_series(1, 300) g");
+                st.execute("INSERT INTO orders SELECT g, g % 300 + 1, g % 7 FROM generate_series(1, 1000) g");
+                st.execute("INSERT INTO order_lines SELECT g, g % 1000 + 1, 's' || g FROM generate_series(1, 2500) g");
+                st.execute("INSERT INTO notes SELECT g, 'n' || g FROM generate_series(1, 500) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE customers(id int primary key, name text)");
+                st.execute("CREATE TABLE orders(id int primary key, customer_id int references customers, total int)");
+                st.execute("CREATE TABLE order_lines(id int primary key, order_id int references orders, sku text)");
+                st.execute("CREATE TABLE notes(id int primary key, body text)");
+            }
+
+            // listed children first: only the foreign keys decide the order
+            Config cfg = config(srcUrl, dstUrl, 200, "connectionBudget", "4",
+                    "tables", "order_lines, orders, customers, notes",
+                    "table.order_lines.columns", "id, order_id, sku",
+                    "table.orders.columns", "id, customer_id, total",
+                    "table.orders.filter", "total > 0",
+                    "table.customers.columns", "id, name",
+                    "table.notes.columns", "id, body");
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres")) {
+                assertEquals(List.of("customers", "notes", "orders", "order_lines"),
+                        MultiTableMigrationService.order(MultiTableMigrationService.dependencies(c, cfg.tables())));
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                Config twice = config(srcUrl, dstUrl, 200, "tables", "customers, clients",
+                        "table.customers.columns", "id, name", "table.clients.columns", "id, name", "table.clients.target", "public.customers");
+                IllegalArgumentException duplicate = assertThrows(IllegalArgumentException.class,
+                        () -> MultiTableMigrationService.dependencies(c, twice.tables()));
+                assertTrue(duplicate.getMessage().contains("both load target table"), duplicate.getMessage());
+
+                st.execute("CREATE TABLE staff(id int primary key, manager_id int constraint staff_manager_fk references staff)");
+                Config selfReferencing = config(srcUrl, dstUrl, 200, "tables", "customers, staff",
+                        "table.customers.columns", "id, name", "table.staff.columns", "id, manager_id");
+                IllegalStateException self = assertThrows(IllegalStateException.class,
+                        () -> MultiTableMigrationService.dependencies(c, selfReferencing.tables()));
+                assertTrue(self.getMessage().contains("staff_manager_fk"), self.getMessage());
+                st.execute("DROP TABLE staff");
+            }
+
+            // the target only takes orders with a total, so the lines of the others stay behind too
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("DELETE FROM order_lines WHERE order_id IN (SELECT id FROM orders WHERE total = 0)");
+            }
+            new MultiTableMigrationService(cfg).run();
+
+            assertEquals(300, count(dstUrl, "SELECT count(*) FROM customers"));
+            assertEquals(858, count(dstUrl, "SELECT count(*) FROM orders"));
+            assertEquals(count(srcUrl, "SELECT count(*) FROM order_lines"), count(dstUrl, "SELECT count(*) FROM order_lines"));
+            assertEquals(500, count(dstUrl, "SELECT count(*) FROM notes"));
+            assertEquals(4, count(dstUrl, "SELECT count(*) FROM migration_progress WHERE task_name LIKE 'task:%'"));
+
+            // every table resumes from its own checkpoint, so a rerun copies nothing twice
+            new MultiTableMigrationService(cfg).run();
+            assertEquals(858, count(dstUrl, "SELECT count(*) FROM orders"));
+        }
+    }
+
+    @Test
+    void isolateModeSetsRejectedRowsAsideAndLoadsTheRest() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT lpad(g::text, 6, '0'), current_date - interval '10 years' " +
+                        "FROM generate_series(1, 1000) g");
+            }
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key CHECK (id NOT LIKE '%7'), birthday date)");
+                st.execute("INSERT INTO kids VALUES ('000010', current_date)");
+            }
+
+            Config cfg = config(srcUrl, dstUrl, 200, "extractMode", "keyset", "pipelineDepth", "2",
+                    "failureMode", "isolate", "retryBackoffMillis", "10");
+            new CopyMigrationService(cfg).run();
+
+            assertEquals(900, count(dstUrl, "SELECT count(*) FROM kids"));
+            assertEquals(100, count(dstUrl, "SELECT count(*) FROM migration_dead_letter " +
+                    "WHERE sql_state = '23514' AND row_data LIKE '%7,%'"));
+            assertEquals(1, count(dstUrl, "SELECT count(*) FROM migration_dead_letter " +
+                    "WHERE sql_state = '23505' AND row_data LIKE '000010,%' AND task_name = 'task'"));
+
+            // the dead letters committed with their batches' checkpoints, so a rerun adds none
+            new CopyMigrationService(cfg).run();
+            assertEquals(101, count(dstUrl, "SELECT count(*) FROM migration_dead_letter"));
+        }
+    }
+
+    @Test
+    void extractToChunkFilesAndLoadThemIntoTwoTargets() throws Exception {
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst2 = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+            String dst2Url = dst2.getJdbcUrl("postgres", "postgres");
+
+            try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT lpad(g::text, 6, '0'), " +
+                        "current_date - (g % 30) * interval '1 year' FROM generate_series(1, 2000) g");
+            }
+            for (String url : List.of(dstUrl, dst2Url)) {
+                try (Connection c = DriverManager.getConnection(url, "postgres", "postgres");
+                     Statement st = c.createStatement()) {
+                    st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+                }
+            }
+            long kids = count(srcUrl, "SELECT count(*) FROM person WHERE " + Config.KIDS_FILTER);
+
+            Path dir = Files.createTempDirectory("chunks");
+            Config extract = config(srcUrl, dstUrl, 100, "impl", "extract", "chunkDir", dir.toString(), "chunkRows", "300");
+            new ChunkExtractService(extract).run();
+            String manifest = Files.readString(dir.resolve(ChunkManifest.FILE));
+            ChunkManifest written = ChunkManifest.read(dir);
+            assertTrue(written.isComplete());
+            assertEquals(kids, written.rows());
+
+            // a crash after two chunks, in the middle of a manifest line and a chunk file
+            List<ChunkManifest.Chunk> chunks = written.chunks();
+            Files.writeString(dir.resolve(ChunkManifest.FILE),
+                    manifest.substring(0, manifest.indexOf("chunk\t3\t")) + "chunk\t3\t0001");
+            for (ChunkManifest.Chunk chunk : chunks.subList(2, chunks.size())) {
+                Files.delete(dir.resolve(chunk.fileName()));
+            }
+            Files.writeString(dir.resolve(chunks.get(2).fileName() + ".tmp"), "partial");
+            new ChunkExtractService(extract).run();
+            assertEquals(manifest, Files.readString(dir.resolve(ChunkManifest.FILE)));
+
+            // a damaged chunk fails only its own load; the rerun skips the chunks already loaded
+            Path damaged = dir.resolve(chunks.get(1).fileName());
+            byte[] good = Files.readAllBytes(damaged);
+            byte[] bad = good.clone();
+            bad[bad.length / 2] ^= 0x55;
+            Files.write(damaged, bad);
+            Config load = config(srcUrl, dstUrl, 100, "impl", "load", "chunkDir", dir.toString(), "parallelism", "2");
+            assertThrows(Exception.class, () -> new ChunkLoadService(load).run());
+            assertTrue(count(dstUrl, "SELECT count(*) FROM kids") < kids);
+            Files.write(damaged, good);
+            new ChunkLoadService(load).run();
+            assertEquals(kids, count(dstUrl, "SELECT count(*) FROM kids"));
+
+            new ChunkLoadService(load.withTargetUrl(dst2Url)).run();
+            assertEquals(kids, count(dst2Url, "SELECT count(*) FROM kids"));
+            assertEquals(chunks.size(), count(dst2Url, "SELECT count(*) FROM migration_progress WHERE task_name LIKE 'task@chunk-%'"));
+        }
+    }
+
+    private static long count(String url, String sql) throws Exception {
+        try (Connection c = DriverManager.getConnection(url, "postgres", "postgres");
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    static Config config(String srcUrl, String dstUrl, int batchSize, String... options) {
+        Properties props = new Properties();
+        props.setProperty("source.url", srcUrl);
+        props.setProperty("source.user", "postgres");
+        props.setProperty("source.password", "postgres");
+        props.setProperty("target.url", dstUrl);
+        props.setProperty("target.user", "postgres");
+        props.setProperty("target.password", "postgres");
+        props.setProperty("batchSize", String.valueOf(batchSize));
+        props.setProperty("taskName", "task");
+        for (int i = 0; i < options.length; i += 2) {
+            props.setProperty(options[i], options[i + 1]);
+        }
+        return Config.from(props);
+    }
 }
@@ -1,5 +1,6 @@
 package com.example.migrator;
 
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
 import org.junit.jupiter.api.Test;
 
 import java.lang.reflect.Method;
@@ -11,30 +12,33 @@ import static org.junit.jupiter.api.Assertions.*;
 public class MigrationServiceProgressTest {
     @Test
     void progressIsSavedAndLoaded() throws Exception {
-        Config cfg = new Config(
-                "jdbc:h2:mem:src", "", "",
-                "jdbc:h2:mem:dst", "", "",
-                10, "task", null, "copy"
-        );
-        CopyMigrationService service = new CopyMigrationService(cfg);
-
-        try (Connection conn = DriverManager.getConnection("jdbc:h2:mem:dst")) {
-            Method ensure = CopyMigrationService.class.getDeclaredMethod("ensureProgressTable", Connection.class);
-            ensure.setAccessible(true);
-            ensure.invoke(service, conn);
-
-            Method save = CopyMigrationService.class.getDeclaredMethod("saveProgress", Connection.class, String.class, String.class);
-            save.setAccessible(true);
-            save.invoke(service, conn, "task", "1");
-
-            Method load = CopyMigrationService.class.getDeclaredMethod("loadProgress", Connection.class, String.class);
-            load.setAccessible(true);
-            String last = (String) load.invoke(service, conn, "task");
-            assertEquals("1", last);
-
-            save.invoke(service, conn, "task", "2");
-            last = (String) load.invoke(service, conn, "task");
-            assertEquals("2", last);
+        try (EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", "C").start()) {
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+            Config cfg = new Config(
+                    dstUrl, "postgres", "postgres",
+                    dstUrl, "postgres", "postgres",
+                    10, "task", null, "copy"
+            );
+            CopyMigrationService service = new CopyMigrationService(cfg);
+
+            try (Connection conn = DriverManager.getConnection(dstUrl, "postgres", "postgres")) {
+                Method ensure = CopyMigrationService.class.getDeclaredMethod("ensureProgressTable", Connection.class);
+                ensure.setAccessible(true);
+                ensure.invoke(service, conn);
+
+                Method save = CopyMigrationService.class.getDeclaredMethod("saveProgress", Connection.class, String.class, String.class);
+                save.setAccessible(true);
+                save.invoke(service, conn, "task", "1");
+
+                Method load = CopyMigrationService.class.getDeclaredMethod("loadProgress", Connection.class, String.class);
+                load.setAccessible(true);
+                String last = (String) load.invoke(service, conn, "task");
+                assertEquals("1", last);
+
+                save.invoke(service, conn, "task", "2");
+                last = (String) load.invoke(service, conn, "task");
+                assertEquals("2", last);
+            }
         }
     }
 }
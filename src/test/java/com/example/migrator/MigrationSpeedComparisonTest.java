@@ -2,7 +2,6 @@ package com.example.migrator;
 
 import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
 import org.junit.jupiter.api.Test;
-import io.prometheus.client.CollectorRegistry;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -34,7 +33,6 @@ public class MigrationSpeedComparisonTest {
             }
 
             Config cfgCopy = new Config(srcUrl, "postgres", "postgres", dstUrl, "postgres", "postgres", 500, "copyTask", null, "copy");
-            CollectorRegistry.defaultRegistry.clear();
             long start = System.currentTimeMillis();
             new CopyMigrationService(cfgCopy).run();
             long copyTime = System.currentTimeMillis() - start;
@@ -46,7 +44,6 @@ public class MigrationSpeedComparisonTest {
             }
 
             Config cfgSimple = new Config(srcUrl, "postgres", "postgres", dstUrl, "postgres", "postgres", 500, "simpleTask", null, "simple");
-            CollectorRegistry.defaultRegistry.clear();
             start = System.currentTimeMillis();
             new SimpleMigrationService(cfgSimple).run();
             long simpleTime = System.currentTimeMillis() - start;
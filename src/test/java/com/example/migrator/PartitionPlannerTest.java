@@ -0,0 +1,87 @@
+package com.example.migrator;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionPlannerTest {
+
+    private static final String LOCALE = "C";
+
+    @Test
+    void histogramPlanBalancesTextIds() throws Exception {
+        try (EmbeddedPostgres pg = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             Connection c = DriverManager.getConnection(pg.getJdbcUrl("postgres", "postgres"), "postgres", "postgres")) {
+            try (Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, current_date - interval '10 years' FROM generate_series(1, 99999) g");
+                st.execute("ANALYZE person");
+            }
+
+            PartitionPlanner.Plan plan = new PartitionPlanner().plan(c, 4);
+
+            assertEquals(4, plan.partitions().size());
+            assertEquals(99999, plan.estimatedRows(), 5000);
+            assertBalanced(c, plan.partitions(), 99999);
+        }
+    }
+
+    @Test
+    void samplePlanIsUsedWithoutStatistics() throws Exception {
+        try (EmbeddedPostgres pg = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             Connection c = DriverManager.getConnection(pg.getJdbcUrl("postgres", "postgres"), "postgres", "postgres")) {
+            try (Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date) WITH (autovacuum_enabled = false)");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, current_date - interval '10 years' FROM generate_series(1, 20000) g");
+                st.execute("INSERT INTO person(id, birthday) SELECT g::text, current_date - interval '40 years' FROM generate_series(20001, 40000) g");
+            }
+
+            PartitionPlanner.Plan plan = new PartitionPlanner().plan(c, 3);
+
+            assertEquals(3, plan.partitions().size());
+            assertBalanced(c, plan.partitions(), 20000);
+        }
+    }
+
+    @Test
+    void emptyTableGivesOneOpenPartition() throws Exception {
+        try (EmbeddedPostgres pg = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             Connection c = DriverManager.getConnection(pg.getJdbcUrl("postgres", "postgres"), "postgres", "postgres")) {
+            try (Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE person(id text primary key, birthday date)");
+            }
+
+            List<Partition> partitions = new PartitionPlanner().plan(c, 4).partitions();
+
+            assertEquals(List.of(new Partition(0, null, null)), partitions);
+        }
+    }
+
+    private static void assertBalanced(Connection c, List<Partition> partitions, int kids) throws Exception {
+        int total = 0;
+        try (PreparedStatement ps = c.prepareStatement("SELECT count(*) FROM person WHERE birthday > current_date - interval '18 years' " +
+                "AND (?::text IS NULL OR id > ?) AND (?::text IS NULL OR id <= ?)")) {
+            for (Partition p : partitions) {
+                ps.setString(1, p.from());
+                ps.setString(2, p.from());
+                ps.setString(3, p.to());
+                ps.setString(4, p.to());
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    int rows = rs.getInt(1);
+                    assertEquals(kids / partitions.size(), rows, kids / partitions.size() * 0.3, "rows in " + p);
+                    total += rows;
+                }
+            }
+        }
+        assertEquals(kids, total);
+    }
+}
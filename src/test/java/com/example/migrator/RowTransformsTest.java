@@ -0,0 +1,72 @@
+package com.example.migrator;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RowTransformsTest {
+
+    private static String run(RowTransforms transforms, String csv) {
+        CopyBuffer out = new CopyBuffer(0);
+        transforms.transform(CopyBuffer.wrap(csv.getBytes(StandardCharsets.UTF_8)), out, new CopyCsv.Cursor(), transforms.newRow());
+        return new String(out.array(), 0, out.size(), StandardCharsets.UTF_8);
+    }
+
+    /** Upper-cases one column, to show a custom step named by class. */
+    public static class Upper implements RowTransform {
+        private final String column;
+        private int index;
+
+        public Upper(String column) {
+            this.column = column;
+        }
+
+        @Override
+        public List<String> bind(List<String> columns) {
+            index = Row.index(columns, column);
+            return columns;
+        }
+
+        @Override
+        public boolean apply(Row row) {
+            if (!row.isNull(index)) {
+                row.set(index, row.text(index).toUpperCase());
+            }
+            return true;
+        }
+    }
+
+    @Test
+    void chainMapsConvertsMasksDerivesAndFilters() {
+        RowTransforms transforms = new RowTransforms(List.of("id", "born", "name"),
+                RowTransforms.parse("rename:born=birthday; date:birthday; mask:id=2; constant:source=legacy; require:name; " +
+                        Upper.class.getName() + ":name"),
+                List.of("source", "id", "birthday", "name"));
+        assertEquals("source, id, birthday, name", transforms.targetColumns());
+        assertEquals("legacy,****42,2015-06-01,\"SMITH, J\"\n" + "legacy,**ßü,,\"\"\n",
+                run(transforms, "123442,2015-06-01 00:00:00,\"smith, j\"\n" + "näßü,,\"\"\n" + "9,2015-06-01,\n"));
+    }
+
+    @Test
+    void unchangedRowsAreCopiedAsExtracted() {
+        RowTransforms transforms = new RowTransforms(List.of("id", "birthday"), RowTransforms.parse("date:birthday"), List.of());
+        assertFalse(transforms.isEmpty());
+        // the first row is left alone, including its unneeded quotes; the second is re-encoded
+        assertEquals("\"1\",2015-06-01\n2,2015-06-01\n3,\n",
+                run(transforms, "\"1\",2015-06-01\n2,2015-06-01 10:00:00\n3,"));
+        assertTrue(new RowTransforms(List.of("id", "birthday"), List.of(), List.of()).isEmpty());
+        assertFalse(new RowTransforms(List.of("id", "birthday"), List.of(), List.of("birthday", "id")).isEmpty());
+    }
+
+    @Test
+    void columnNamesFollowAliasesAndCasts() {
+        assertEquals(List.of("id", "birthday", "initials", "name"),
+                RowTransforms.columnNames("p.id, birthday::date, left(coalesce(first, ''), 1) AS initials, \"name\""));
+        assertThrows(IllegalArgumentException.class, () -> RowTransforms.parse("no.such.Transform"));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RowTransforms(List.of("id"), RowTransforms.parse("require:missing"), List.of()));
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.migrator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs every service and mode over a generated {@code person} table and reports rows/sec,
+ * peak heap and p99 load latency per run. A run slower, hungrier or with a worse p99 than the
+ * stored baseline for the same dataset allows within {@code scale.tolerance} fails the suite. Only runs with {@code -Pscale}; the dataset is sized with
+ * {@code scale.rows}, {@code scale.width} (payload characters per row) and {@code scale.skew}
+ * (ids grow as g^skew, so higher values bunch the ids up at the low end of the key space).
+ */
+@Tag("scale")
+public class ScaleBenchmarkTest {
+
+    private static final String LOCALE = "C";
+
+    private static final long ROWS = Long.getLong("scale.rows", 1_000_000);
+    private static final int WIDTH = Integer.getInteger("scale.width", 100);
+    private static final double SKEW = Double.parseDouble(System.getProperty("scale.skew", "1.5"));
+    private static final int BATCH_SIZE = Integer.getInteger("scale.batchSize", 5000);
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("scale.tolerance", "0.3"));
+
+    private record Run(String name, Function<Config, MigrationService> service, String... options) {
+    }
+
+    private static final List<Run> RUNS = List.of(
+            new Run("simple", SimpleMigrationService::new),
+            new Run("simple-keyset", SimpleMigrationService::new, "extractMode", "keyset"),
+            new Run("copy-csv", CopyMigrationService::new),
+            new Run("copy-stream", CopyMigrationService::new, "copyMode", "stream"),
+            new Run("copy-binary", CopyMigrationService::new, "copyMode", "binary"),
+            new Run("copy-keyset-stream", CopyMigrationService::new, "extractMode", "keyset", "copyMode", "stream"),
+            new Run("copy-pipelined", CopyMigrationService::new, "extractMode", "keyset", "pipelineDepth", "4"),
+            new Run("copy-merge", CopyMigrationService::new, "extractMode", "keyset", "copyMode", "stream", "loadMode", "merge"),
+            new Run("parallel", ParallelMigrationService::new, "copyMode", "stream", "parallelism", "4"),
+            new Run("parallel-bulk-load", c -> new BulkLoadMigrationService(c, ParallelMigrationService::new),
+                    "copyMode", "stream", "parallelism", "4", "bulkLoad", "true"));
+
+    @Test
+    void allModesKeepUpWithBaseline() throws Exception {
+        ObjectMapper json = new ObjectMapper();
+        ObjectNode report = json.createObjectNode();
+        report.put("rows", ROWS);
+        report.put("width", WIDTH);
+        report.put("skew", SKEW);
+        report.put("batchSize", BATCH_SIZE);
+        ArrayNode results = report.putArray("results");
+
+        try (EmbeddedPostgres src = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start();
+             EmbeddedPostgres dst = EmbeddedPostgres.builder().setLocaleConfig("locale", LOCALE).start()) {
+
+            String srcUrl = src.getJdbcUrl("postgres", "postgres");
+            String dstUrl = dst.getJdbcUrl("postgres", "postgres");
+            long kids = generate(srcUrl);
+            try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE kids(id text primary key, birthday date)");
+                st.execute("CREATE INDEX kids_birthday_idx ON kids(birthday)");
+            }
+
+            for (Run run : RUNS) {
+                try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+                     Statement st = c.createStatement()) {
+                    st.execute("TRUNCATE kids");
+                }
+                List<String> options = new ArrayList<>(List.of(run.options()));
+                options.addAll(List.of("taskName", "scale-" + run.name()));
+                Config config = MigrationServiceEmbeddedPostgresTest.config(srcUrl, dstUrl, BATCH_SIZE, options.toArray(String[]::new));
+
+                resetPeakHeap();
+                long start = System.nanoTime();
+                run.service().apply(config).run();
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                assertEquals(kids, count(dstUrl), run.name());
+                ObjectNode result = results.addObject();
+                result.put("name", run.name());
+                result.put("seconds", seconds);
+                result.put("rowsPerSecond", kids / seconds);
+                result.put("peakHeapBytes", peakHeap());
+                result.put("p99LoadSeconds", p99LoadSeconds(config.taskName()));
+            }
+        }
+
+        Path reportFile = Path.of(System.getProperty("scale.report", "target/scale-report.json"));
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        json.writerWithDefaultPrettyPrinter().writeValue(reportFile.toFile(), report);
+
+        Path baselineFile = Path.of(System.getProperty("scale.baseline", "src/test/resources/scale-baseline.json"));
+        if (Boolean.getBoolean("scale.updateBaseline")) {
+            json.writerWithDefaultPrettyPrinter().writeValue(baselineFile.toFile(), report);
+            return;
+        }
+        assertAboveBaseline(json, report, baselineFile);
+    }
+
+    private static long generate(String srcUrl) throws Exception {
+        try (Connection c = DriverManager.getConnection(srcUrl, "postgres", "postgres");
+             Statement st = c.createStatement()) {
+            st.execute("CREATE TABLE person(id text primary key, birthday date, payload text)");
+            st.execute("INSERT INTO person(id, birthday, payload) " +
+                    "SELECT lpad(floor(power(g, " + SKEW + "))::bigint::text, 20, '0'), " +
+                    "CASE WHEN g % 10 < 3 THEN current_date - interval '10 years' ELSE current_date - interval '30 years' END, " +
+                    "repeat('x', " + WIDTH + ") FROM generate_series(1, " + ROWS + ") g");
+            st.execute("ANALYZE person");
+            try (ResultSet rs = st.executeQuery("SELECT count(*) FROM person WHERE birthday > current_date - interval '18 years'")) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private static long count(String dstUrl) throws Exception {
+        try (Connection c = DriverManager.getConnection(dstUrl, "postgres", "postgres");
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT count(*) FROM kids")) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Upper bound of the histogram bucket holding the 99th percentile, summed over partitions;
+     * null when no batch was timed or the percentile is past the last bucket.
+     */
+    private static Double p99LoadSeconds(String task) {
+        TreeMap<Double, Double> buckets = new TreeMap<>();
+        Enumeration<Collector.MetricFamilySamples> families = CollectorRegistry.defaultRegistry
+                .filteredMetricFamilySamples(Set.of("migrator_batch_stage_seconds_bucket"));
+        while (families.hasMoreElements()) {
+            for (Collector.MetricFamilySamples.Sample sample : families.nextElement().samples) {
+                if (sample.name.endsWith("_bucket") && task.equals(label(sample, "task")) && "load".equals(label(sample, "stage"))) {
+                    buckets.merge(parseLe(label(sample, "le")), sample.value, Double::sum);
+                }
+            }
+        }
+        if (buckets.isEmpty()) {
+            return null;
+        }
+        double total = buckets.lastEntry().getValue();
+        return buckets.entrySet().stream()
+                .filter(b -> b.getValue() >= total * 0.99)
+                .findFirst()
+                .map(b -> b.getKey())
+                .filter(Double::isFinite)
+                .orElse(null);
+    }
+
+    private static double parseLe(String le) {
+        return "+Inf".equals(le) ? Double.POSITIVE_INFINITY : Double.parseDouble(le);
+    }
+
+    private static String label(Collector.MetricFamilySamples.Sample sample, String name) {
+        int i = sample.labelNames.indexOf(name);
+        return i < 0 ? null : sample.labelValues.get(i);
+    }
+
+    private static void assertAboveBaseline(ObjectMapper json, ObjectNode report, Path baselineFile) throws Exception {
+        if (!Files.exists(baselineFile)) {
+            Assumptions.abort("No scale baseline at " + baselineFile + ", run with -Dscale.updateBaseline=true to record one");
+        }
+        JsonNode baseline = json.readTree(baselineFile.toFile());
+        for (String key : List.of("rows", "width", "skew", "batchSize")) {
+            if (!baseline.path(key).asText().equals(report.path(key).asText())) {
+                Assumptions.abort("Scale baseline was recorded for a different dataset, not comparing");
+            }
+        }
+        List<String> regressions = new ArrayList<>();
+        for (JsonNode result : report.path("results")) {
+            for (JsonNode expected : baseline.path("results")) {
+                if (expected.path("name").equals(result.path("name"))) {
+                    String name = result.path("name").asText();
+                    double floor = expected.path("rowsPerSecond").asDouble() * (1 - TOLERANCE);
+                    if (result.path("rowsPerSecond").asDouble() < floor) {
+                        regressions.add(String.format("%s: %.0f rows/sec, baseline allows no less than %.0f",
+                                name, result.path("rowsPerSecond").asDouble(), floor));
+                    }
+                    double heapCeiling = expected.path("peakHeapBytes").asDouble() * (1 + TOLERANCE);
+                    if (result.path("peakHeapBytes").asDouble() > heapCeiling) {
+                        regressions.add(String.format("%s: %.0f MiB peak heap, baseline allows no more than %.0f MiB",
+                                name, result.path("peakHeapBytes").asDouble() / (1 << 20), heapCeiling / (1 << 20)));
+                    }
+                    // null when no batch was timed or the percentile fell past the last bucket
+                    if (expected.path("p99LoadSeconds").isNumber()) {
+                        double p99Ceiling = expected.path("p99LoadSeconds").asDouble() * (1 + TOLERANCE);
+                        if (!result.path("p99LoadSeconds").isNumber() || result.path("p99LoadSeconds").asDouble() > p99Ceiling) {
+                            regressions.add(String.format("%s: p99 load %s s, baseline allows no more than %.3f s",
+                                    name, result.path("p99LoadSeconds").asText(), p99Ceiling));
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue(regressions.isEmpty(), String.join("\n", regressions));
+    }
+}
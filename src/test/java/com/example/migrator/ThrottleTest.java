@@ -0,0 +1,80 @@
+package com.example.migrator;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThrottleTest {
+
+    private static Config config(String... options) {
+        return MigrationServiceEmbeddedPostgresTest.config("jdbc:postgresql://localhost:1/none", "jdbc:postgresql://localhost:1/none",
+                1000, options);
+    }
+
+    @Test
+    void withoutLimitsNeverWaits() throws Exception {
+        try (Throttle throttle = new Throttle(config())) {
+            long start = System.nanoTime();
+            throttle.pace(1_000_000, 1L << 30, 1_000_000_000L);
+            assertTrue(System.nanoTime() - start < 100_000_000L);
+        }
+    }
+
+    @Test
+    void rowBucketWaitsOffItsDebt() throws Exception {
+        try (Throttle throttle = new Throttle(config("maxRowsPerSecond", "1000"))) {
+            long start = System.nanoTime();
+            // the first second's worth is already in the bucket
+            throttle.pace(1000, 0, 0);
+            assertTrue(System.nanoTime() - start < 100_000_000L);
+            throttle.pace(500, 0, 0);
+            long waited = System.nanoTime() - start;
+            assertTrue(waited >= 400_000_000L && waited < 1_000_000_000L, "waited " + waited / 1_000_000 + " ms");
+        }
+    }
+
+    @Test
+    void unhealthySourceHalvesThePace() throws Exception {
+        // the source cannot be reached, which the probe counts as overloaded
+        try (Throttle throttle = new Throttle(config("maxSourceActiveBackends", "10"))) {
+            awaitPace(0.5);
+            long start = System.nanoTime();
+            throttle.pace(100, 0, 200_000_000L);
+            long waited = System.nanoTime() - start;
+            assertEquals(0.5, Throttle.paceGauge.labels("task").get());
+            try (Throttle other = new Throttle(config("taskName", "other"))) {
+                // each task exports its own pace
+                assertEquals(1.0, Throttle.paceGauge.labels("other").get());
+                assertEquals(0.5, Throttle.paceGauge.labels("task").get());
+            }
+            // at half pace a worker rests as long as its batch took
+            assertTrue(waited >= 200_000_000L, "waited " + waited / 1_000_000 + " ms");
+        }
+    }
+
+    @Test
+    void hangingProbeNeitherBlocksWorkersNorCountsAsHealthy() throws Exception {
+        // accepts the connection but never answers the startup packet
+        try (ServerSocket silent = new ServerSocket(0)) {
+            String url = "jdbc:postgresql://localhost:" + silent.getLocalPort() + "/none";
+            Config config = MigrationServiceEmbeddedPostgresTest.config(url, url, 1000,
+                    "maxSourceActiveBackends", "10", "healthCheckMillis", "1000");
+            try (Throttle throttle = new Throttle(config)) {
+                long start = System.nanoTime();
+                throttle.pace(100, 0, 0);
+                assertTrue(System.nanoTime() - start < 100_000_000L, "pace waited for the probe");
+                awaitPace(0.5);
+            }
+        }
+    }
+
+    private static void awaitPace(double expected) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (Throttle.paceGauge.labels("task").get() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, Throttle.paceGauge.labels("task").get());
+    }
+}